@@ -0,0 +1,11 @@
+#!/bin/sh
+# Runs the benchmarks and stores the results under results/, named after the
+# date and the current commit. Extra arguments are passed to JMH, for
+# instance a benchmark name pattern or "-p inFlight=1000".
+set -e
+cd "$(dirname "$0")"
+
+[ -f target/benchmarks.jar ] || mvn -B -q package
+
+name="$(date +%Y%m%d-%H%M%S)-$(git rev-parse --short HEAD 2>/dev/null || echo local)"
+java -jar target/benchmarks.jar -rf json -rff "results/$name.json" "$@"
@@ -0,0 +1,93 @@
+package com.smartcommunity.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.smartcommunity.workflowpoc.domain.Workflow;
+import com.smartcommunity.workflowpoc.services.WorkflowService;
+
+/**
+ * Cost of applying a task completion, with many tasks in flight.
+ *
+ * Every iteration starts the given number of tasks, in workflows of 100
+ * tasks, then measures a fixed round of completions, taken in an order valid
+ * for sequential workflows as well: the first task of every workflow, then
+ * the second one, and so on.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class CompletionBenchmark {
+
+	private static final int WORKFLOW_SIZE = 100;
+
+	private static final int COMPLETIONS = 1000;
+
+	@Param({ "1000", "100000", "1000000" })
+	public int inFlight;
+
+	@Param({ "false", "true" })
+	public boolean parallel;
+
+	private Fixtures.H2 h2;
+
+	private ConfigurableApplicationContext context;
+
+	private WorkflowService service;
+
+	private String[] order;
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		h2 = Fixtures.h2();
+		context = Fixtures.manager(h2, false);
+		service = context.getBean(WorkflowService.class);
+		List<Workflow> workflows = new ArrayList<>();
+		for (int i = 0; i < inFlight / WORKFLOW_SIZE; i++) {
+			workflows.add(service.startWorkflow(Fixtures.workflow(WORKFLOW_SIZE, parallel)));
+		}
+
+		order = new String[COMPLETIONS];
+		int n = 0;
+		for (int pos = 0; pos < WORKFLOW_SIZE && n < COMPLETIONS; pos++) {
+			for (int w = 0; w < workflows.size() && n < COMPLETIONS; w++) {
+				order[n++] = workflows.get(w).getTasks().get(pos).getId();
+			}
+		}
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		context.close();
+		h2.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COMPLETIONS)
+	public void processTaskCompletion() {
+		for (String taskId : order) {
+			service.processTaskCompletion(taskId, true);
+		}
+	}
+
+}
@@ -0,0 +1,203 @@
+package com.smartcommunity.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.model.naming.CamelCaseToUnderscoresNamingStrategy;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.AutoConfigurationPackage;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.smartcommunity.workflowpoc.domain.ArchivedTask;
+import com.smartcommunity.workflowpoc.domain.OutboxEntry;
+import com.smartcommunity.workflowpoc.domain.Task;
+import com.smartcommunity.workflowpoc.domain.Workflow;
+import com.smartcommunity.workflowpoc.services.DispatchScheduler;
+import com.smartcommunity.workflowpoc.services.FileBlobStore;
+import com.smartcommunity.workflowpoc.services.PayloadService;
+import com.smartcommunity.workflowpoc.services.TaskCache;
+import com.smartcommunity.workflowpoc.services.TaskCompleteProcessor;
+import com.smartcommunity.workflowpoc.services.TaskOutbox;
+import com.smartcommunity.workflowpoc.services.TaskStoreService;
+import com.smartcommunity.workflowpoc.services.TaskTransport;
+import com.smartcommunity.workflowpoc.services.WorkflowEvents;
+import com.smartcommunity.workflowpoc.services.WorkflowMetrics;
+import com.smartcommunity.workflowpoc.services.WorkflowService;
+import com.smartcommunity.workflowpoc.services.WorkflowStoreService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Wiring of the services under benchmark, in Spring contexts holding the
+ * application beans themselves over an in-memory H2 database, with the
+ * schema Hibernate generates from the entities of the manager, as the
+ * application does.
+ *
+ * The task transport is replaced by one accepting every task at once, and
+ * the store of the engine optionally by a no-op store. Nothing runs in the
+ * background: the outbox relay, the consumers and the scheduled jobs are
+ * left out.
+ */
+final class Fixtures {
+
+	private Fixtures() {
+	}
+
+	/**
+	 * Opens a fresh in-memory H2 database with the application schema.
+	 */
+	static H2 h2() {
+		JdbcConnectionPool pool = JdbcConnectionPool.create(
+				"jdbc:h2:mem:bench-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+		pool.setMaxConnections(64);
+		createSchema(pool);
+		return new H2(pool, new JdbcTemplate(pool));
+	}
+
+	/**
+	 * Creates the tables and indexes of the entities, named as Spring Boot
+	 * names them.
+	 */
+	private static void createSchema(JdbcConnectionPool pool) {
+		StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+			.applySetting(AvailableSettings.DATASOURCE, pool)
+			.applySetting(AvailableSettings.HBM2DDL_AUTO, "create")
+			.applySetting(AvailableSettings.PHYSICAL_NAMING_STRATEGY, CamelCaseToUnderscoresNamingStrategy.class.getName())
+			.build();
+		try (SessionFactory factory = new MetadataSources(registry)
+			.addAnnotatedClass(Workflow.class)
+			.addAnnotatedClass(Task.class)
+			.addAnnotatedClass(OutboxEntry.class)
+			.addAnnotatedClass(ArchivedTask.class)
+			.buildMetadata()
+			.buildSessionFactory()) {
+			// the schema is created on startup
+		}
+		finally {
+			StandardServiceRegistryBuilder.destroy(registry);
+		}
+	}
+
+	record H2(JdbcConnectionPool pool, JdbcTemplate jdbcTemplate) implements AutoCloseable {
+
+		@Override
+		public void close() {
+			jdbcTemplate.execute("SHUTDOWN");
+			pool.dispose();
+		}
+	}
+
+	/**
+	 * Starts the manager engine over the given database.
+	 * @param store Whether the engine writes to the database, or to a store
+	 *            that keeps nothing, to measure the engine alone.
+	 */
+	static ConfigurableApplicationContext manager(H2 h2, boolean store) {
+		return new SpringApplicationBuilder(Manager.class, store ? WorkflowStoreService.class : NoopStore.class)
+			.web(WebApplicationType.NONE)
+			.bannerMode(Banner.Mode.OFF)
+			.logStartupInfo(false)
+			.initializers(context -> ((GenericApplicationContext) context).registerBean(DataSource.class, h2::pool))
+			// the schema is there already, and the dispatch window unbounded
+			.properties("spring.jpa.hibernate.ddl-auto=none",
+					"scheduler.max-in-flight=" + Integer.MAX_VALUE, "logging.level.root=WARN")
+			.run();
+	}
+
+	/**
+	 * Starts the task store of a worker over the given database.
+	 */
+	static AnnotationConfigApplicationContext worker(H2 h2) {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		context.registerBean(JdbcTemplate.class, h2::jdbcTemplate);
+		context.register(com.smartcommunity.worker.services.TaskStoreService.class);
+		context.refresh();
+		return context;
+	}
+
+	@Configuration(proxyBeanMethods = false)
+	@EnableAutoConfiguration
+	@AutoConfigurationPackage(basePackages = "com.smartcommunity.workflowpoc")
+	@Import({ WorkflowService.class, DispatchScheduler.class, WorkflowEvents.class, WorkflowMetrics.class,
+			TaskCache.class, TaskStoreService.class, TaskOutbox.class, PayloadService.class, FileBlobStore.class })
+	static class Manager {
+
+		@Bean
+		MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+
+		@Bean
+		TaskTransport taskTransport() {
+			return new TaskTransport() {
+
+				@Override
+				public void init(TaskCompleteProcessor taskCompleteProcessor) {
+				}
+
+				@Override
+				public CompletableFuture<Void> sendTask(Task task, int priority) {
+					return CompletableFuture.completedFuture(null);
+				}
+			};
+		}
+	}
+
+	/**
+	 * A store that keeps nothing of the new and finished workflows.
+	 */
+	static class NoopStore extends WorkflowStoreService {
+
+		@Override
+		public List<Workflow> createAll(List<Workflow> workflows, Collection<Task> ready) {
+			return workflows;
+		}
+
+		@Override
+		public void finish(Workflow workflow) {
+		}
+
+		@Override
+		public void update(Workflow workflow) {
+		}
+	}
+
+	/**
+	 * Builds a new workflow of tasks of alternating types.
+	 */
+	static Workflow workflow(int size, boolean parallel) {
+		Workflow workflow = new Workflow();
+		workflow.setName("bench");
+		workflow.setParallel(parallel);
+		List<Task> tasks = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			Task task = new Task();
+			task.setType(i % 2 == 0 ? "t1" : "t2");
+			tasks.add(task);
+		}
+		workflow.setTasks(tasks);
+		return workflow;
+	}
+
+}
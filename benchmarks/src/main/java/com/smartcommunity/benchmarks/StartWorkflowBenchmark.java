@@ -0,0 +1,97 @@
+package com.smartcommunity.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.smartcommunity.workflowpoc.domain.Workflow;
+import com.smartcommunity.workflowpoc.services.WorkflowService;
+
+/**
+ * Cost of starting a workflow: validation, registration, insert of the
+ * workflow, its tasks and the outbox entries of the ready tasks.
+ *
+ * Every invocation starts a round of workflows on a fresh engine and store,
+ * so that the in-memory state does not grow across iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+@Fork(1)
+public class StartWorkflowBenchmark {
+
+	private static final int WORKFLOWS = 1000;
+
+	private static final int BATCH_SIZE = 500;
+
+	@Param({ "10", "100" })
+	public int size;
+
+	@Param({ "false", "true" })
+	public boolean parallel;
+
+	@Param({ "noop", "h2" })
+	public String store;
+
+	private Fixtures.H2 h2;
+
+	private ConfigurableApplicationContext context;
+
+	private WorkflowService service;
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		h2 = Fixtures.h2();
+		context = Fixtures.manager(h2, "h2".equals(store));
+		service = context.getBean(WorkflowService.class);
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		context.close();
+		h2.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORKFLOWS)
+	public void startWorkflow() {
+		for (int i = 0; i < WORKFLOWS; i++) {
+			service.startWorkflow(Fixtures.workflow(size, parallel));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WORKFLOWS)
+	public void startWorkflows() {
+		List<Workflow> batch = new ArrayList<>(BATCH_SIZE);
+		for (int i = 0; i < WORKFLOWS; i++) {
+			batch.add(Fixtures.workflow(size, parallel));
+			if (batch.size() == BATCH_SIZE) {
+				service.startWorkflows(batch);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			service.startWorkflows(batch);
+		}
+	}
+
+}
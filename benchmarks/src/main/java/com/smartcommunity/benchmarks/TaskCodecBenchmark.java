@@ -0,0 +1,73 @@
+package com.smartcommunity.benchmarks;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+import com.smartcommunity.workflowpoc.domain.TaskStatus;
+import com.smartcommunity.workflowpoc.services.TaskCodec;
+
+import tools.jackson.databind.ObjectMapper;
+
+/**
+ * Cost of writing and reading a task message, in the JSON and in the binary
+ * format. The message size is printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskCodecBenchmark {
+
+	@Param({ "json", "binary" })
+	public String codec;
+
+	private TaskCodec taskCodec;
+
+	private Task task;
+
+	private byte[] body;
+
+	@Setup
+	public void setup() {
+		taskCodec = new TaskCodec(new ObjectMapper(), "binary".equals(codec));
+
+		long now = System.currentTimeMillis();
+		task = new Task();
+		task.setId(UUID.randomUUID().toString());
+		task.setWorkflowId(UUID.randomUUID().toString());
+		task.setType("t1");
+		task.setStatus(TaskStatus.PENDING.name());
+		task.setVersion(0);
+		task.setCreatedAt(now);
+		task.setUpdatedAt(now);
+
+		body = taskCodec.encode(task);
+		System.out.println("\n" + codec + " message: " + body.length + " bytes");
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		return taskCodec.encode(task);
+	}
+
+	@Benchmark
+	public Task decode() {
+		return taskCodec.decode(taskCodec.contentType(), body);
+	}
+
+}
@@ -0,0 +1,125 @@
+package com.smartcommunity.benchmarks;
+
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.smartcommunity.worker.domain.Task;
+import com.smartcommunity.worker.domain.TaskStatus;
+import com.smartcommunity.worker.services.TaskStoreService;
+
+/**
+ * Cost of the task state transitions of the worker, under concurrency.
+ *
+ * Every iteration inserts a fresh set of PENDING tasks, then each benchmark
+ * thread starts and completes its share of them, as the worker does for
+ * every delivery. Applied and rejected transitions are reported as
+ * secondary results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+@Threads(TransitionBenchmark.THREADS)
+@Fork(1)
+public class TransitionBenchmark {
+
+	static final int THREADS = 16;
+
+	private static final int TASKS_PER_THREAD = 2000;
+
+	private static final String OWNER = "bench-worker";
+
+	private Fixtures.H2 h2;
+
+	private ConfigurableApplicationContext context;
+
+	private TaskStoreService store;
+
+	private Task[] tasks;
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		h2 = Fixtures.h2();
+		context = Fixtures.worker(h2);
+		store = context.getBean(TaskStoreService.class);
+
+		long now = System.currentTimeMillis();
+		tasks = new Task[THREADS * TASKS_PER_THREAD];
+		for (int i = 0; i < tasks.length; i++) {
+			Task task = new Task();
+			task.setId(UUID.randomUUID().toString());
+			task.setWorkflowId("bench");
+			task.setType("t1");
+			task.setStatus(TaskStatus.PENDING.name());
+			task.setVersion(0);
+			task.setCreatedAt(now);
+			task.setUpdatedAt(now);
+			tasks[i] = task;
+		}
+		h2.jdbcTemplate().batchUpdate(
+				"INSERT INTO task (id, version, type, created_at, updated_at, status_code, workflow_id) "
+						+ "VALUES (?, ?, ?, ?, ?, ?, ?)",
+				Arrays.stream(tasks)
+					.map(t -> new Object[] { t.getId(), t.getVersion(), t.getType(), t.getCreatedAt(),
+							t.getUpdatedAt(), TaskStatus.valueOf(t.getStatus()).code(), t.getWorkflowId() })
+					.toList(),
+				new int[] { Types.VARCHAR, Types.INTEGER, Types.VARCHAR, Types.BIGINT, Types.BIGINT, Types.SMALLINT,
+						Types.VARCHAR });
+		next.set(0);
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		context.close();
+		h2.close();
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Transitions {
+
+		public long applied;
+
+		public long rejected;
+
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TASKS_PER_THREAD)
+	public void startAndComplete(Transitions transitions) throws Exception {
+		for (int i = 0; i < TASKS_PER_THREAD; i++) {
+			Task task = tasks[next.getAndIncrement()];
+			Task started = store.startTask(task, OWNER);
+			if (started == null || store.completeTask(started) == null) {
+				transitions.rejected++;
+			}
+			else {
+				transitions.applied++;
+			}
+		}
+	}
+
+}
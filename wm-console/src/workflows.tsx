@@ -5,7 +5,6 @@ import {
   required,
   ArrayInput,
   SimpleFormIterator,
-  FunctionField,
   ArrayField,
   Show,
   SimpleShowLayout,
@@ -16,8 +15,16 @@ import {
   ResourceContextProvider,
   BooleanInput,
   BooleanField,
+  SelectInput,
+  NumberInput,
+  NumberField,
+  RecordContextProvider,
+  RaRecord,
 } from "react-admin";
 import { DataTable, List } from "react-admin";
+import { ReactNode, useEffect, useState } from "react";
+
+const apiUrl = import.meta.env.VITE_SIMPLE_REST_URL + "/api";
 
 function statusToColor(
   value: string,
@@ -34,6 +41,7 @@ function statusToColor(
     IN_PROGRESS: "warning",
     COMPLETED: "success",
     FAILED: "error",
+    RUNNING: "warning",
   };
 
   return map[value] ?? "default";
@@ -67,53 +75,143 @@ export const WorkflowCreate = () => {
               helperText={false}
               validate={[required()]}
             />
+            <TextInput source="ref" helperText={false} />
+            <TextInput
+              source="dependsOn"
+              helperText="comma separated refs"
+              format={(v) => (Array.isArray(v) ? v.join(",") : v)}
+              parse={(v) =>
+                v
+                  ? v
+                      .split(",")
+                      .map((s: string) => s.trim())
+                      .filter((s: string) => s)
+                  : []
+              }
+            />
           </SimpleFormIterator>
         </ArrayInput>
         <BooleanInput source="parallel" defaultChecked={false} />
+        <NumberInput source="priority" min={0} max={9} />
       </SimpleForm>
     </Create>
   );
 };
 
+const workflowFilters = [
+  <TextInput key="name" source="name" label="Name" alwaysOn />,
+  <SelectInput
+    key="status"
+    source="status"
+    choices={[
+      { id: "RUNNING", name: "RUNNING" },
+      { id: "COMPLETED", name: "COMPLETED" },
+      { id: "FAILED", name: "FAILED" },
+    ]}
+    alwaysOn
+  />,
+];
+
 export const WorkflowList = () => (
-  <List exporter={false}>
+  <List
+    exporter={false}
+    filters={workflowFilters}
+    sort={{ field: "createdAt", order: "DESC" }}
+  >
     <DataTable bulkActionButtons={false}>
       <DataTable.Col source="id" />
       <DataTable.Col source="name" />
-      <DataTable.Col source="tasks">
-        <FunctionField render={(r) => (r.tasks ? r.tasks.length : 0)} />
+      <DataTable.Col source="status">
+        <StatusChip source="status" />
+      </DataTable.Col>
+      <DataTable.Col source="taskCount" label="Tasks" />
+      <DataTable.Col source="createdAt">
+        <DateField source="createdAt" transform={(v) => new Date(v)} />
       </DataTable.Col>
     </DataTable>
   </List>
 );
 
+type TaskDelta = { id: string; status: string; updatedAt: number };
+
+/**
+ * Applies the task changes streamed by the manager to the shown workflow,
+ * while it is running, instead of polling it.
+ */
+const LiveWorkflow = ({ children }: { children: ReactNode }) => {
+  const record = useRecordContext();
+  const [live, setLive] = useState<RaRecord | undefined>(record);
+
+  useEffect(() => setLive(record), [record]);
+
+  const id = record?.id;
+  const running = record?.status === "RUNNING";
+  useEffect(() => {
+    if (!id || !running) {
+      return;
+    }
+    const source = new EventSource(`${apiUrl}/workflow/${id}/events`);
+    source.addEventListener("delta", (e) => {
+      const delta = JSON.parse((e as MessageEvent).data);
+      const changed = new Map<string, TaskDelta>(
+        delta.tasks.map((t: TaskDelta) => [t.id, t]),
+      );
+      setLive((prev) =>
+        prev
+          ? {
+              ...prev,
+              status: delta.status ?? prev.status,
+              tasks: (prev.tasks || []).map((t: TaskDelta) =>
+                changed.has(t.id) ? { ...t, ...changed.get(t.id) } : t,
+              ),
+            }
+          : prev,
+      );
+      if (delta.status) {
+        // final event, the stream is over
+        source.close();
+      }
+    });
+    return () => source.close();
+  }, [id, running]);
+
+  return <RecordContextProvider value={live}>{children}</RecordContextProvider>;
+};
+
 export const WorkflowShow = () => (
   <Show>
-    <SimpleShowLayout>
-      <TextField source="id" />
-      <TextField source="name" />
-      <ArrayField source="tasks">
-        <ResourceContextProvider value="task">
-          <DataTable bulkActionButtons={false}>
-            <DataTable.Col source="id">
-              <TextField source="id" />
-            </DataTable.Col>
-            <DataTable.Col source="type">
-              <TextField source="type" />
-            </DataTable.Col>
-            <DataTable.Col source="status">
-              <StatusChip source="status" />
-            </DataTable.Col>
-            <DataTable.Col source="createdAt">
-              <DateField source="createdAt" transform={(v) => new Date(v)} />
-            </DataTable.Col>
-            <DataTable.Col source="updatedAt">
-              <DateField source="updatedAt" transform={(v) => new Date(v)} />
-            </DataTable.Col>
-          </DataTable>
-        </ResourceContextProvider>
-      </ArrayField>
-      <BooleanField source="parallel" />
-    </SimpleShowLayout>
+    <LiveWorkflow>
+      <SimpleShowLayout>
+        <TextField source="id" />
+        <TextField source="name" />
+        <StatusChip source="status" />
+        <ArrayField source="tasks">
+          <ResourceContextProvider value="task">
+            <DataTable bulkActionButtons={false}>
+              <DataTable.Col source="id">
+                <TextField source="id" />
+              </DataTable.Col>
+              <DataTable.Col source="ref">
+                <TextField source="ref" />
+              </DataTable.Col>
+              <DataTable.Col source="type">
+                <TextField source="type" />
+              </DataTable.Col>
+              <DataTable.Col source="status">
+                <StatusChip source="status" />
+              </DataTable.Col>
+              <DataTable.Col source="createdAt">
+                <DateField source="createdAt" transform={(v) => new Date(v)} />
+              </DataTable.Col>
+              <DataTable.Col source="updatedAt">
+                <DateField source="updatedAt" transform={(v) => new Date(v)} />
+              </DataTable.Col>
+            </DataTable>
+          </ResourceContextProvider>
+        </ArrayField>
+        <BooleanField source="parallel" />
+        <NumberField source="priority" />
+      </SimpleShowLayout>
+    </LiveWorkflow>
   </Show>
 );
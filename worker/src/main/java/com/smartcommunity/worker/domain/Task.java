@@ -1,13 +1,23 @@
 package com.smartcommunity.worker.domain;
 
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
 import jakarta.persistence.Version;
 
 @Entity
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Table(indexes = @Index(name = "idx_task_lease", columnList = "leaseExpiresAt"))
 public class Task {
 
+    public static final int MAX_INLINE_PAYLOAD = 8192;
+
     @Id
     private String id;
 
@@ -17,9 +27,25 @@ public class Task {
     private String type;
     private long createdAt;
     private long updatedAt;
+    @Column(name = "status_code")
+    @Convert(converter = TaskStatusConverter.class)
     private String status;
     private String workflowId;
 
+    private String leaseOwner;
+    private Long leaseExpiresAt;
+
+    /**
+     * Inline payloads, up to {@link #MAX_INLINE_PAYLOAD} bytes of UTF-8;
+     * larger ones are kept in the blob store and referenced by id.
+     */
+    @Column(length = MAX_INLINE_PAYLOAD)
+    private String input;
+    private String inputRef;
+    @Column(length = MAX_INLINE_PAYLOAD)
+    private String output;
+    private String outputRef;
+
     public Task() {}
 
     public String getId() {
@@ -67,4 +93,46 @@ public class Task {
     public void setWorkflowId(String workflowId) {
         this.workflowId = workflowId;
     }
+
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+    public void setLeaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+    }
+
+    public Long getLeaseExpiresAt() {
+        return leaseExpiresAt;
+    }
+    public void setLeaseExpiresAt(Long leaseExpiresAt) {
+        this.leaseExpiresAt = leaseExpiresAt;
+    }
+
+    public String getInput() {
+        return input;
+    }
+    public void setInput(String input) {
+        this.input = input;
+    }
+
+    public String getInputRef() {
+        return inputRef;
+    }
+    public void setInputRef(String inputRef) {
+        this.inputRef = inputRef;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+    public void setOutput(String output) {
+        this.output = output;
+    }
+
+    public String getOutputRef() {
+        return outputRef;
+    }
+    public void setOutputRef(String outputRef) {
+        this.outputRef = outputRef;
+    }
 }
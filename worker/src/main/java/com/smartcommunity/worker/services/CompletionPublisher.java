@@ -0,0 +1,268 @@
+package com.smartcommunity.worker.services;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+/**
+ * Persistent publisher for task completion messages.
+ *
+ * Callers only enqueue the message; a dedicated sender thread pipelines the
+ * queued messages on a single confirm-mode channel and re-publishes the ones
+ * the broker nacks or that were in flight when the channel was lost.
+ * Messages awaiting a confirm are tracked per channel, as every new channel
+ * numbers its publishes from 1 again.
+ *
+ * A completion is never dropped: failed messages are retried with an
+ * exponential backoff for as long as it takes, and no new message is taken
+ * while retries are waiting, so that a broker in trouble fills the local
+ * buffer and eventually blocks the callers.
+ */
+public class CompletionPublisher implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(CompletionPublisher.class);
+
+	private static final int DRAIN_BATCH = 256;
+
+	private static final long MIN_BACKOFF = 100;
+
+	private static final long MAX_BACKOFF = 10000;
+
+	private final Connection connection;
+
+	private final String queueName;
+
+	private final AMQP.BasicProperties props;
+
+	private final BlockingQueue<Outgoing> queue;
+
+	private final BlockingQueue<Outgoing> retries = new PriorityBlockingQueue<>(64,
+			Comparator.comparingLong(Outgoing::notBefore));
+
+	private final Semaphore outstanding;
+
+	private final Thread sender;
+
+	private volatile Confirms current;
+
+	private volatile boolean running = true;
+
+	public CompletionPublisher(Connection connection, String queueName, AMQP.BasicProperties props, int capacity,
+			int maxOutstandingConfirms) {
+		this.connection = connection;
+		this.queueName = queueName;
+		this.props = props;
+		this.queue = new LinkedBlockingQueue<>(capacity);
+		this.outstanding = new Semaphore(maxOutstandingConfirms);
+
+		this.sender = new Thread(this::run, "completion-publisher");
+		this.sender.setDaemon(true);
+		this.sender.start();
+	}
+
+	/**
+	 * Enqueues a message for publishing, blocking only if the local buffer is
+	 * full.
+	 */
+	public void publish(byte[] body) throws InterruptedException {
+		queue.put(new Outgoing(body, 0, 0));
+	}
+
+	/**
+	 * Returns the number of messages queued, waiting for a retry or awaiting a
+	 * broker confirm.
+	 */
+	public int getBacklog() {
+		Confirms c = current;
+		return queue.size() + retries.size() + (c != null ? c.pending.size() : 0);
+	}
+
+	private void run() {
+		List<Outgoing> batch = new ArrayList<>(DRAIN_BATCH);
+		int sent = 0;
+		while (running || !queue.isEmpty() || !retries.isEmpty()) {
+			try {
+				if (!retries.isEmpty()) {
+					// retries go first, new messages wait until they are through
+					long wait = retries.peek().notBefore - System.currentTimeMillis();
+					if (wait > 0) {
+						Thread.sleep(Math.min(wait, 100));
+						continue;
+					}
+					Outgoing o;
+					while (batch.size() < DRAIN_BATCH && (o = retries.peek()) != null
+							&& o.notBefore <= System.currentTimeMillis()) {
+						batch.add(retries.poll());
+					}
+				}
+				else {
+					Outgoing first = queue.poll(100, TimeUnit.MILLISECONDS);
+					if (first == null) {
+						continue;
+					}
+					batch.add(first);
+					queue.drainTo(batch, DRAIN_BATCH - 1);
+				}
+
+				Confirms c = ensureChannel();
+				for (Outgoing o : batch) {
+					outstanding.acquire();
+					long seqNo = c.channel.getNextPublishSeqNo();
+					c.pending.put(seqNo, o);
+					sent++;
+					try {
+						c.channel.basicPublish("", queueName, props, o.body);
+					}
+					catch (Exception e) {
+						// also AlreadyClosedException, once the channel is gone
+						if (c.pending.remove(seqNo) != null) {
+							outstanding.release();
+							retry(o);
+						}
+						throw e;
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			catch (Exception e) {
+				logger.error("Error publishing task completions", e);
+				// messages of the batch not handed to the channel yet
+				for (Outgoing o : batch.subList(sent, batch.size())) {
+					retry(o);
+				}
+				closeChannel();
+				pause();
+			}
+			finally {
+				batch.clear();
+				sent = 0;
+			}
+		}
+	}
+
+	private Confirms ensureChannel() throws IOException {
+		Confirms c = current;
+		if (c == null || !c.channel.isOpen()) {
+			if (c != null) {
+				// the shutdown listener may not have run yet
+				confirm(c.pending, Long.MAX_VALUE, true, false);
+			}
+			Channel ch = connection.createChannel();
+			ch.confirmSelect();
+			Confirms next = new Confirms(ch);
+			ch.addConfirmListener((tag, multiple) -> confirm(next.pending, tag, multiple, true),
+					(tag, multiple) -> confirm(next.pending, tag, multiple, false));
+			ch.addShutdownListener(cause -> {
+				// re-publish everything still waiting on the lost channel
+				confirm(next.pending, Long.MAX_VALUE, true, false);
+			});
+			current = c = next;
+		}
+		return c;
+	}
+
+	private void confirm(ConcurrentNavigableMap<Long, Outgoing> pending, long tag, boolean multiple, boolean ack) {
+		if (multiple) {
+			Map.Entry<Long, Outgoing> entry;
+			while ((entry = pending.firstEntry()) != null && entry.getKey() <= tag) {
+				if (pending.remove(entry.getKey()) != null) {
+					complete(entry.getValue(), ack);
+				}
+			}
+		}
+		else {
+			Outgoing o = pending.remove(tag);
+			if (o != null) {
+				complete(o, ack);
+			}
+		}
+	}
+
+	private void complete(Outgoing o, boolean ack) {
+		outstanding.release();
+		if (!ack) {
+			retry(o);
+		}
+	}
+
+	private void retry(Outgoing o) {
+		long backoff = Math.min(MAX_BACKOFF, MIN_BACKOFF << Math.min(o.attempt, 16));
+		retries.add(new Outgoing(o.body, o.attempt + 1, System.currentTimeMillis() + backoff));
+		logger.warn("Task completion not confirmed, retrying in {} ms (attempt {})", backoff, o.attempt + 1);
+	}
+
+	private void closeChannel() {
+		Confirms c = current;
+		current = null;
+		if (c == null) {
+			return;
+		}
+		if (c.channel.isOpen()) {
+			try {
+				c.channel.close();
+			}
+			catch (Exception e) {
+				logger.debug("Error closing completion channel", e);
+			}
+		}
+		confirm(c.pending, Long.MAX_VALUE, true, false);
+	}
+
+	private void pause() {
+		try {
+			Thread.sleep(1000);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void close() throws Exception {
+		running = false;
+		sender.join(10000);
+		Confirms c = current;
+		if (c != null && c.channel.isOpen()) {
+			c.channel.waitForConfirms(5000);
+			c.channel.close();
+		}
+	}
+
+	private record Outgoing(byte[] body, int attempt, long notBefore) {
+	}
+
+	/**
+	 * A confirm-mode channel and the messages awaiting its confirms, by
+	 * sequence number.
+	 */
+	private static final class Confirms {
+
+		private final Channel channel;
+
+		private final ConcurrentNavigableMap<Long, Outgoing> pending = new ConcurrentSkipListMap<>();
+
+		Confirms(Channel channel) {
+			this.channel = channel;
+		}
+	}
+
+}
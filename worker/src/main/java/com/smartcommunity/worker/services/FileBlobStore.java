@@ -0,0 +1,105 @@
+package com.smartcommunity.worker.services;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Blob store keeping each payload in a file of a local, possibly shared,
+ * directory.
+ *
+ * Payloads are named by random UUIDs and spread over subdirectories by the
+ * first two characters of their id. A payload is written to a temporary file
+ * and moved in place once complete, so that readers never see partial ones.
+ * Content is moved with {@link FileChannel#transferFrom} and
+ * {@link FileChannel#transferTo}, which the operating system performs without
+ * copying through the heap when the other side is a file or a socket.
+ */
+@Service
+@ConditionalOnProperty(name = "payload.store.type", havingValue = "file", matchIfMissing = true)
+public class FileBlobStore implements BlobStore {
+
+	private static final long CHUNK_SIZE = 8 * 1024 * 1024;
+
+	@Value("${payload.store.path:/tmp/wfm-payloads}")
+	private String path;
+
+	private Path root;
+
+	@PostConstruct
+	public void init() throws IOException {
+		root = Files.createDirectories(Path.of(path));
+	}
+
+	@Override
+	public String put(ReadableByteChannel source) throws IOException {
+		String id = UUID.randomUUID().toString();
+		Path target = resolve(id);
+		Files.createDirectories(target.getParent());
+		Path tmp = target.resolveSibling(id + ".tmp");
+		try (FileChannel file = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			long position = 0;
+			long n;
+			while ((n = file.transferFrom(source, position, CHUNK_SIZE)) > 0) {
+				position += n;
+			}
+		}
+		catch (IOException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+		Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+		return id;
+	}
+
+	@Override
+	public ReadableByteChannel open(String id) throws IOException {
+		return FileChannel.open(resolve(id), StandardOpenOption.READ);
+	}
+
+	@Override
+	public long transferTo(String id, WritableByteChannel target) throws IOException {
+		try (FileChannel file = FileChannel.open(resolve(id), StandardOpenOption.READ)) {
+			long size = file.size();
+			long position = 0;
+			while (position < size) {
+				position += file.transferTo(position, Math.min(CHUNK_SIZE, size - position), target);
+			}
+			return size;
+		}
+	}
+
+	@Override
+	public long size(String id) throws IOException {
+		return Files.size(resolve(id));
+	}
+
+	@Override
+	public void delete(String id) throws IOException {
+		Files.deleteIfExists(resolve(id));
+	}
+
+	/**
+	 * Returns the file of a payload, accepting only the ids this store
+	 * generates so that no path outside the root can be reached.
+	 */
+	private Path resolve(String id) {
+		if (id == null || id.length() != 36 || !UUID.fromString(id).toString().equals(id)) {
+			throw new IllegalArgumentException("Invalid payload id " + id);
+		}
+		return root.resolve(id.substring(0, 2)).resolve(id);
+	}
+
+}
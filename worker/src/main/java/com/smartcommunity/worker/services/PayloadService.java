@@ -0,0 +1,83 @@
+package com.smartcommunity.worker.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.smartcommunity.worker.domain.Task;
+
+/**
+ * Service for the input and output payloads of the tasks run by a worker.
+ *
+ * Inputs are read as streams, whether they came inline with the task
+ * message or are stored in the blob store. Outputs are written as streams as
+ * well: they are kept inline when they are small UTF-8 text, and stored in
+ * the blob store otherwise, without ever being held whole in memory.
+ */
+@Service
+public class PayloadService {
+
+	@Autowired
+	private BlobStore blobStore;
+
+	@Value("${payload.inline-max:1024}")
+	private int inlineMax;
+
+	/**
+	 * Opens the input of a task.
+	 * @param task The task, as received.
+	 * @return A stream of the input, empty if the task has none.
+	 * @throws IOException If the stored input can not be read.
+	 */
+	public InputStream openInput(Task task) throws IOException {
+		if (task.getInputRef() != null) {
+			return Channels.newInputStream(blobStore.open(task.getInputRef()));
+		}
+		byte[] inline = task.getInput() != null ? task.getInput().getBytes(StandardCharsets.UTF_8) : new byte[0];
+		return new ByteArrayInputStream(inline);
+	}
+
+	/**
+	 * Sets the output of a task, reading it until its end.
+	 * @param task The task, to be completed.
+	 * @param in The output content.
+	 * @throws IOException If the output can not be read or stored.
+	 */
+	public void writeOutput(Task task, InputStream in) throws IOException {
+		int limit = Math.min(inlineMax, Task.MAX_INLINE_PAYLOAD);
+		byte[] head = in.readNBytes(limit + 1);
+		if (head.length <= limit) {
+			String text = text(head);
+			if (text != null) {
+				task.setOutput(text);
+				task.setOutputRef(null);
+				return;
+			}
+		}
+		InputStream all = new SequenceInputStream(new ByteArrayInputStream(head), in);
+		task.setOutputRef(blobStore.put(Channels.newChannel(all)));
+		task.setOutput(null);
+	}
+
+	/**
+	 * Decodes UTF-8 text, or returns null if the bytes are not.
+	 */
+	private static String text(byte[] bytes) {
+		try {
+			return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes)).toString();
+		}
+		catch (CharacterCodingException e) {
+			return null;
+		}
+	}
+
+}
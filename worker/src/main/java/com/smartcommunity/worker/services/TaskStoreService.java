@@ -1,50 +1,145 @@
 package com.smartcommunity.worker.services;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
-import org.springframework.transaction.annotation.Transactional;
 
 import com.smartcommunity.worker.domain.Task;
 import com.smartcommunity.worker.domain.TaskStatus;
-import com.smartcommunity.worker.repository.TaskRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 /**
  * Service for managing tasks in the data store.
+ *
+ * Transitions are single conditional updates on the version and status
+ * carried by the task message, batched across concurrently running tasks.
  */
 @Service
-@Transactional
 public class TaskStoreService {
 
+	private static final String RENEW_SQL = "UPDATE task SET lease_expires_at = ? "
+			+ "WHERE lease_owner = ? AND status_code = ? AND id IN (%s)";
+
+	private static final String OUTPUT_SQL = "UPDATE task SET output = ?, output_ref = ? "
+			+ "WHERE id = ? AND version = ? AND status_code = ?";
+
 	@Autowired
-	private TaskRepository taskRepository;
+	private JdbcTemplate jdbcTemplate;
+
+	@Value("${worker.transitions.batch-size:256}")
+	private int batchSize;
 
-	@Transactional(propagation = Propagation.REQUIRES_NEW)
-	public Task startTask(String id) {
-		Task dbTask = taskRepository.findById(id).orElse(null);
+	@Value("${worker.lease.duration:60000}")
+	private long leaseDuration;
 
-		if (dbTask != null) {
-			dbTask.setUpdatedAt(System.currentTimeMillis());
-			dbTask.setStatus(TaskStatus.IN_PROGRESS.name());
-			return taskRepository.saveAndFlush(dbTask);
+	private TransitionBatcher batcher;
+
+	@PostConstruct
+	public void init() {
+		batcher = new TransitionBatcher(jdbcTemplate, batchSize);
+	}
+
+	@PreDestroy
+	public void close() throws Exception {
+		batcher.close();
+	}
+
+	/**
+	 * Moves a PENDING task to IN_PROGRESS, leased to the given worker.
+	 * @param task The task as received.
+	 * @param owner The ID of the worker.
+	 * @return The updated task, or null if the task was already taken or the
+	 *         message is stale.
+	 */
+	public Task startTask(Task task, String owner) throws Exception {
+		Task started = transition(task, TaskStatus.PENDING, TaskStatus.IN_PROGRESS, owner,
+				System.currentTimeMillis() + leaseDuration);
+		if (started != null) {
+			started.setInput(task.getInput());
+			started.setInputRef(task.getInputRef());
 		}
-		else {
-			return null;
+		return started;
+	}
+
+	/**
+	 * Moves an IN_PROGRESS task to COMPLETED, releasing its lease, and stores
+	 * its output if any. The output is not carried by the returned task.
+	 * @param task The task as returned by {@link #startTask(Task, String)}.
+	 * @return The updated task, or null if the task was changed meanwhile.
+	 */
+	public Task completeTask(Task task) throws Exception {
+		if (task.getOutput() != null || task.getOutputRef() != null) {
+			// written ahead of the transition, under the same version check
+			int version = task.getVersion() != null ? task.getVersion() : 0;
+			if (jdbcTemplate.update(OUTPUT_SQL, task.getOutput(), task.getOutputRef(), task.getId(), version,
+					TaskStatus.IN_PROGRESS.code()) == 0) {
+				return null;
+			}
 		}
+		return transition(task, TaskStatus.IN_PROGRESS, TaskStatus.COMPLETED, null, null);
 	}
 
-	@Transactional(propagation = Propagation.REQUIRES_NEW)
-	public Task completeTask(Task task) {
-		Task dbTask = taskRepository.findById(task.getId()).orElse(null);
+	/**
+	 * Moves an IN_PROGRESS task to FAILED, releasing its lease.
+	 * @param task The task as returned by {@link #startTask(Task, String)}.
+	 * @return The updated task, or null if the task was changed meanwhile.
+	 */
+	public Task failTask(Task task) throws Exception {
+		return transition(task, TaskStatus.IN_PROGRESS, TaskStatus.FAILED, null, null);
+	}
 
-		if (dbTask != null) {
-			dbTask.setUpdatedAt(System.currentTimeMillis());
-			dbTask.setStatus(TaskStatus.COMPLETED.name());
-			return taskRepository.saveAndFlush(dbTask);
+	/**
+	 * Extends the leases of the running tasks of a worker, with one statement
+	 * per batch of tasks. Tasks reclaimed meanwhile are left untouched.
+	 * @param ids The IDs of the running tasks.
+	 * @param owner The ID of the worker.
+	 * @return The number of leases renewed.
+	 */
+	public int renewLeases(Collection<String> ids, String owner) {
+		long expiresAt = System.currentTimeMillis() + leaseDuration;
+		List<String> all = new ArrayList<>(ids);
+		int renewed = 0;
+		for (int from = 0; from < all.size(); from += batchSize) {
+			List<String> chunk = all.subList(from, Math.min(from + batchSize, all.size()));
+			String sql = String.format(RENEW_SQL, String.join(",", Collections.nCopies(chunk.size(), "?")));
+			List<Object> args = new ArrayList<>(chunk.size() + 3);
+			args.add(expiresAt);
+			args.add(owner);
+			args.add(TaskStatus.IN_PROGRESS.code());
+			args.addAll(chunk);
+			renewed += jdbcTemplate.update(sql, args.toArray());
 		}
-		else {
+		return renewed;
+	}
+
+	private Task transition(Task task, TaskStatus from, TaskStatus to, String leaseOwner, Long leaseExpiresAt)
+			throws Exception {
+		int version = task.getVersion() != null ? task.getVersion() : 0;
+		long now = System.currentTimeMillis();
+		if (!batcher.transition(task.getId(), version, from, to, now, leaseOwner, leaseExpiresAt)) {
 			return null;
 		}
+
+		// the row now matches the message, with the new state
+		Task updated = new Task();
+		updated.setId(task.getId());
+		updated.setType(task.getType());
+		updated.setWorkflowId(task.getWorkflowId());
+		updated.setCreatedAt(task.getCreatedAt());
+		updated.setVersion(version + 1);
+		updated.setUpdatedAt(now);
+		updated.setStatus(to.name());
+		updated.setLeaseOwner(leaseOwner);
+		updated.setLeaseExpiresAt(leaseExpiresAt);
+		return updated;
 	}
 
 }
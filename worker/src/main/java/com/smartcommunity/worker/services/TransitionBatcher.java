@@ -0,0 +1,167 @@
+package com.smartcommunity.worker.services;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.smartcommunity.worker.domain.TaskStatus;
+
+/**
+ * Applies task state transitions as conditional updates, batching the ones
+ * requested concurrently.
+ *
+ * Each transition is a single compare-and-set statement on id, version and
+ * current status: it succeeds only if nobody moved the task in between, so
+ * stale or duplicate requests are rejected without reading the row. Callers
+ * block until the batch holding their transition is executed. Should a batch
+ * fail, its transitions are applied again one by one, so that a bad row only
+ * fails its own caller.
+ */
+public class TransitionBatcher implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(TransitionBatcher.class);
+
+	private static final String UPDATE_SQL = "UPDATE task SET status_code = ?, version = version + 1, updated_at = ?, "
+			+ "lease_owner = ?, lease_expires_at = ? WHERE id = ? AND version = ? AND status_code = ?";
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final int maxBatchSize;
+
+	private final BlockingQueue<Transition> queue = new LinkedBlockingQueue<>();
+
+	private final Thread flusher;
+
+	private volatile boolean running = true;
+
+	public TransitionBatcher(JdbcTemplate jdbcTemplate, int maxBatchSize) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.maxBatchSize = maxBatchSize;
+
+		this.flusher = new Thread(this::run, "task-transitions");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	/**
+	 * Moves a task from one status to another, if it is still at the given
+	 * version and status, and sets or clears its lease.
+	 * @return true if the transition was applied.
+	 * @throws Exception If the update could not be executed.
+	 */
+	public boolean transition(String id, int version, TaskStatus from, TaskStatus to, long updatedAt, String leaseOwner,
+			Long leaseExpiresAt) throws Exception {
+		Transition t = new Transition(id, version, from, to, updatedAt, leaseOwner, leaseExpiresAt,
+				new CompletableFuture<>());
+		queue.put(t);
+		try {
+			return t.result.get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception cause) {
+				throw cause;
+			}
+			if (e.getCause() instanceof Error error) {
+				throw error;
+			}
+			throw e;
+		}
+	}
+
+	private void run() {
+		List<Transition> batch = new ArrayList<>(maxBatchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				Transition first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				// whatever queued up while the previous batch ran goes together
+				batch.add(first);
+				queue.drainTo(batch, maxBatchSize - 1);
+				execute(batch);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private void execute(List<Transition> batch) {
+		try {
+			int[] counts = jdbcTemplate.batchUpdate(UPDATE_SQL, new BatchPreparedStatementSetter() {
+
+				@Override
+				public void setValues(PreparedStatement ps, int i) throws SQLException {
+					Transition t = batch.get(i);
+					ps.setShort(1, t.to.code());
+					ps.setLong(2, t.updatedAt);
+					ps.setString(3, t.leaseOwner);
+					ps.setObject(4, t.leaseExpiresAt, Types.BIGINT);
+					ps.setString(5, t.id);
+					ps.setInt(6, t.version);
+					ps.setShort(7, t.from.code());
+				}
+
+				@Override
+				public int getBatchSize() {
+					return batch.size();
+				}
+			});
+
+			for (int i = 0; i < batch.size(); i++) {
+				int count = i < counts.length ? counts[i] : Statement.EXECUTE_FAILED;
+				batch.get(i).result.complete(count > 0 || count == Statement.SUCCESS_NO_INFO);
+			}
+		}
+		catch (Exception e) {
+			if (batch.size() == 1) {
+				logger.error("Error applying the transition of task {}", batch.get(0).id, e);
+				batch.get(0).result.completeExceptionally(e);
+				return;
+			}
+			logger.warn("Error applying {} task transitions, retrying one by one", batch.size(), e);
+			batch.forEach(this::executeOne);
+		}
+	}
+
+	private void executeOne(Transition t) {
+		try {
+			int count = jdbcTemplate.update(UPDATE_SQL, t.to.code(), t.updatedAt, t.leaseOwner, t.leaseExpiresAt,
+					t.id, t.version, t.from.code());
+			t.result.complete(count > 0);
+		}
+		catch (Exception e) {
+			logger.error("Error applying the transition of task {}", t.id, e);
+			t.result.completeExceptionally(e);
+		}
+	}
+
+	@Override
+	public void close() throws Exception {
+		running = false;
+		flusher.join(10000);
+	}
+
+	private record Transition(String id, int version, TaskStatus from, TaskStatus to, long updatedAt, String leaseOwner,
+			Long leaseExpiresAt, CompletableFuture<Boolean> result) {
+	}
+
+}
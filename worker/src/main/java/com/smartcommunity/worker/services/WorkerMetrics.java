@@ -0,0 +1,73 @@
+package com.smartcommunity.worker.services;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Task lifecycle metrics of the worker.
+ *
+ * Timers are registered once per task type and outcome and cached, so that
+ * recording on the hot path is a map lookup and a histogram update.
+ */
+@Service
+public class WorkerMetrics {
+
+	private static final String NO_TYPE = "none";
+
+	@Autowired
+	private MeterRegistry registry;
+
+	private final Map<String, Timer> queueWait = new ConcurrentHashMap<>();
+
+	private final Map<String, Timer> execution = new ConcurrentHashMap<>();
+
+	/**
+	 * Records the time a task spent between its dispatch and its start.
+	 * @param type The type of the task.
+	 * @param dispatchedAt When the manager dispatched the task, in epoch
+	 *            millis.
+	 */
+	public void taskStarted(String type, long dispatchedAt) {
+		// clocks of manager and worker may be slightly apart
+		long wait = Math.max(System.currentTimeMillis() - dispatchedAt, 0);
+		timer(queueWait, key(type), k -> Timer.builder("wfm.task.queue-wait")
+			.description("Time from the dispatch of a task to its start on a worker")
+			.tag("type", k)
+			.publishPercentileHistogram()
+			.register(registry)).record(wait, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Records the execution of a task.
+	 * @param type The type of the task.
+	 * @param success Whether the task succeeded.
+	 * @param startedAt When the execution started, in nanos.
+	 */
+	public void taskExecuted(String type, boolean success, long startedAt) {
+		String outcome = success ? "success" : "failure";
+		timer(execution, key(type) + ":" + outcome, k -> Timer.builder("wfm.task.execution")
+			.description("Execution time of a task on a worker")
+			.tag("type", key(type))
+			.tag("outcome", outcome)
+			.publishPercentileHistogram()
+			.register(registry)).record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+	}
+
+	private static String key(String type) {
+		return type != null ? type : NO_TYPE;
+	}
+
+	private static Timer timer(Map<String, Timer> timers, String key, Function<String, Timer> factory) {
+		Timer timer = timers.get(key);
+		return timer != null ? timer : timers.computeIfAbsent(key, factory);
+	}
+
+}
@@ -1,21 +1,39 @@
 package com.smartcommunity.worker.services;
 
-import java.util.Random;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
 import com.rabbitmq.client.DeliverCallback;
-import com.rabbitmq.client.MessageProperties;
 import com.smartcommunity.worker.domain.Task;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import tools.jackson.databind.ObjectMapper;
 
 /**
@@ -30,6 +48,15 @@ public class WorkerService {
 
 	private static final String TASK_COMPLETE_QUEUE_NAME = "task_completion_queue";
 
+	private static final String TASK_EXCHANGE_NAME = "task_exchange";
+
+	private static final String UNROUTED_EXCHANGE_NAME = "task_exchange.unrouted";
+
+	private static final String DISPATCHED_AT_HEADER = "x-dispatched-at";
+
+	/** Subscription key for the shared queue, holding tasks of any unrouted type. */
+	private static final String ANY_TYPE = "*";
+
 	@Value("${spring.rabbitmq.host}")
 	private String host;
 
@@ -42,15 +69,78 @@ public class WorkerService {
 	@Value("${spring.rabbitmq.password}")
 	private String password;
 
+	@Value("${worker.completion.buffer:10000}")
+	private int completionBuffer;
+
+	@Value("${worker.completion.max-outstanding-confirms:1000}")
+	private int completionMaxOutstandingConfirms;
+
+	@Value("${worker.prefetch:32}")
+	private int prefetch;
+
+	@Value("${worker.executor:virtual}")
+	private String executorMode;
+
+	@Value("${worker.pool-size:16}")
+	private int poolSize;
+
+	@Value("${worker.id:}")
+	private String workerId;
+
+	@Value("${worker.codec:binary}")
+	private String codecName;
+
+	@Value("${worker.types:}")
+	private String types;
+
+	@Value("${worker.max-priority:9}")
+	private int maxPriority;
+
+	@Value("${worker.requeue-delay:1000}")
+	private long requeueDelay;
+
 	private final ObjectMapper objectMapper = new ObjectMapper();
 
+	private TaskCodec codec;
+
+	private final Map<String, Task> running = new ConcurrentHashMap<>();
+
 	private ConnectionFactory factory;
 
+	private ExecutorService executor;
+
+	private Connection receiveConnection;
+
+	private final List<Subscription> subscriptions = new ArrayList<>();
+
+	private ScheduledExecutorService requeuer;
+
+	private Connection publishConnection;
+
+	private CompletionPublisher completionPublisher;
+
 	@Autowired
 	private TaskStoreService taskStoreService;
 
+	@Autowired
+	private WorkerMetrics metrics;
+
+	@Autowired
+	private PayloadService payloadService;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
 	@PostConstruct
 	public void init() throws Exception {
+		if (workerId == null || workerId.isEmpty()) {
+			workerId = UUID.randomUUID().toString();
+		}
+		logger.info("Worker {} starting", workerId);
+		Gauge.builder("wfm.worker.running", running, Map::size)
+			.description("Tasks running on this worker")
+			.register(meterRegistry);
+
 		ConnectionFactory factory = new ConnectionFactory();
 		factory.setHost(host);
 		factory.setPort(Integer.parseInt(port));
@@ -58,72 +148,291 @@ public class WorkerService {
 		factory.setPassword(password);
 		this.factory = factory;
 
-		// Start a consumer to listen for task messages
-		Connection receiveConnection = factory.newConnection();
-		Channel receiveChannel = receiveConnection.createChannel();
+		// Outgoing format is configured, incoming one follows the content type
+		codec = new TaskCodec(objectMapper, !"json".equals(codecName));
 
-		receiveChannel.queueDeclare(TASK_QUEUE_NAME, true, false, false, null);
-		logger.info(" [*] Waiting for task messages. ");
-		receiveChannel.basicQos(1); // Fair dispatch
+		// Persistent publisher for completions, off the consumer thread
+		publishConnection = factory.newConnection("worker-completion-publisher");
+		try (Channel channel = publishConnection.createChannel()) {
+			// Declare a durable queue
+			channel.queueDeclare(TASK_COMPLETE_QUEUE_NAME, true, false, false, null);
+		}
+		AMQP.BasicProperties completionProps = new AMQP.BasicProperties.Builder()
+				.contentType(codec.contentType())
+				.deliveryMode(2)
+				.priority(0)
+				.build();
+		completionPublisher = new CompletionPublisher(publishConnection, TASK_COMPLETE_QUEUE_NAME,
+				completionProps, completionBuffer, completionMaxOutstandingConfirms);
 
-		DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-			String message = new String(delivery.getBody(), "UTF-8");
-			logger.info(" [x] Received '" + message + "'");
-			// process task completion
-			try {
-				Task task = objectMapper.readValue(message, Task.class);
-				processTask(task);
+		// Tasks run off the delivery thread, at most prefetch at a time per type
+		executor = "pool".equals(executorMode) ? Executors.newFixedThreadPool(poolSize)
+				: Executors.newVirtualThreadPerTaskExecutor();
+		requeuer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "delivery-requeue");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		// Start a consumer for every handled task type
+		receiveConnection = factory.newConnection();
+		for (Map.Entry<String, Integer> entry : parseTypes(types).entrySet()) {
+			subscribe(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Parses the handled task types, as a comma separated list of types each
+	 * with an optional concurrency, e.g. "t1:8,t2:2,*". Without types only
+	 * the shared queue is consumed.
+	 */
+	private Map<String, Integer> parseTypes(String spec) {
+		Map<String, Integer> result = new LinkedHashMap<>();
+		for (String item : spec.split(",")) {
+			item = item.trim();
+			if (item.isEmpty()) {
+				continue;
 			}
-			finally {
-				logger.info(" [x] Done");
-				receiveChannel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
+			int sep = item.lastIndexOf(':');
+			if (sep < 0) {
+				result.put(item, prefetch);
 			}
+			else {
+				result.put(item.substring(0, sep).trim(), Integer.parseInt(item.substring(sep + 1).trim()));
+			}
+		}
+		if (result.isEmpty()) {
+			result.put(ANY_TYPE, prefetch);
+		}
+		return result;
+	}
+
+	/**
+	 * Consumes the tasks of a type on a dedicated channel, running at most
+	 * the given number at a time.
+	 */
+	private void subscribe(String type, int concurrency) throws IOException {
+		Channel channel = receiveConnection.createChannel();
+		String queue;
+		if (ANY_TYPE.equals(type)) {
+			queue = TASK_QUEUE_NAME;
+			channel.queueDeclare(queue, true, false, false, null);
+		}
+		else {
+			// same arguments as the manager, whichever starts first
+			channel.exchangeDeclare(TASK_EXCHANGE_NAME, BuiltinExchangeType.DIRECT, true, false,
+					Map.of("alternate-exchange", UNROUTED_EXCHANGE_NAME));
+			queue = TASK_QUEUE_NAME + "." + type;
+			Map<String, Object> args = maxPriority > 0 ? Map.of("x-max-priority", maxPriority) : null;
+			channel.queueDeclare(queue, true, false, false, args);
+			channel.queueBind(queue, TASK_EXCHANGE_NAME, type);
+		}
+		channel.basicQos(concurrency); // Fair dispatch, bounded in-flight window
+
+		DeliverCallback deliverCallback = (tag, delivery) -> {
+			String contentType = delivery.getProperties().getContentType();
+			byte[] body = delivery.getBody();
+			Map<String, Object> headers = delivery.getProperties().getHeaders();
+			Object dispatchedAt = headers != null ? headers.get(DISPATCHED_AT_HEADER) : null;
+			long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+			executor.execute(() -> {
+				// process task, ack upon completion
+				boolean requeue = false;
+				try {
+					Task task = codec.decode(contentType, body);
+					logger.debug(" [x] Received task {}", task.getId());
+					requeue = !processTask(task, dispatchedAt instanceof Number n ? n.longValue() : 0);
+				}
+				catch (Exception e) {
+					logger.error("Error handling task message", e);
+				}
+				finally {
+					if (requeue) {
+						nack(channel, deliveryTag);
+					}
+					else {
+						ack(channel, deliveryTag);
+					}
+				}
+			});
 		};
-		receiveChannel.basicConsume(TASK_QUEUE_NAME, false, deliverCallback, consumerTag -> {
+		String consumerTag = channel.basicConsume(queue, false, deliverCallback, tag -> {
 		});
+		subscriptions.add(new Subscription(channel, consumerTag));
+		logger.info(" [*] Waiting for task messages on {}, up to {} at a time", queue, concurrency);
+	}
+
+	private void ack(Channel channel, long deliveryTag) {
+		// channels are not meant to be used concurrently, each type has its own
+		synchronized (channel) {
+			try {
+				channel.basicAck(deliveryTag, false);
+			}
+			catch (Exception e) {
+				logger.error("Error acking delivery " + deliveryTag, e);
+			}
+		}
 	}
 
-	private void processTask(Task msg) {
-		// Simulate task processing
+	/**
+	 * Requeues a delivery after a delay, so that a failing store is not
+	 * hammered with redeliveries. The delivery keeps its prefetch slot
+	 * meanwhile, which slows down the consumer while the store fails.
+	 */
+	private void nack(Channel channel, long deliveryTag) {
+		try {
+			requeuer.schedule(() -> {
+				synchronized (channel) {
+					try {
+						channel.basicNack(deliveryTag, false, true);
+					}
+					catch (Exception e) {
+						// the delivery is requeued anyway once the channel closes
+						logger.error("Error nacking delivery " + deliveryTag, e);
+					}
+				}
+			}, requeueDelay, TimeUnit.MILLISECONDS);
+		}
+		catch (RejectedExecutionException e) {
+			// shutting down, the broker requeues unacked deliveries
+			logger.debug("Delivery {} left to requeue on close", deliveryTag);
+		}
+	}
+
+	/**
+	 * Runs a task under lease.
+	 * @return false if the task could not be started and its delivery must be
+	 *         requeued, true once handled.
+	 */
+	private boolean processTask(Task msg, long dispatchedAt) {
+		Task task;
+		try {
+			task = taskStoreService.startTask(msg, workerId);
+		}
+		catch (Exception e) {
+			// still PENDING and not leased, nobody would reclaim it
+			logger.error("Error starting task " + msg.getId() + ", requeueing", e);
+			return false;
+		}
+		if (task == null) {
+			// duplicate delivery or stale message
+			logger.info("Task {} of workflow {} already taken, skipping", msg.getId(), msg.getWorkflowId());
+			return true;
+		}
+
+		if (dispatchedAt > 0) {
+			metrics.taskStarted(task.getType(), dispatchedAt);
+		}
+
+		// Simulate task processing, under lease
+		running.put(task.getId(), task);
+		long startedAt = System.nanoTime();
 		try {
-			Task task = taskStoreService.startTask(msg.getId());
 			logger.info("Processing task {} of workflow {}", task.getId(), task.getWorkflowId());
 			// Simulate time-consuming task
-			doWork();
-			task = taskStoreService.completeTask(task);
-			sendTaskComplete(task);
-			logger.info("Task {} of workflow {} completed.", task.getId(), task.getWorkflowId());
+			doWork(task);
+			metrics.taskExecuted(task.getType(), true, startedAt);
+			finishTask(task, true);
+		}
+		catch (Exception e) {
+			logger.error("Error processing task " + task.getId(), e);
+			metrics.taskExecuted(task.getType(), false, startedAt);
+			finishTask(task, false);
+		}
+		finally {
+			running.remove(task.getId());
+		}
+		return true;
+	}
+
+	private void finishTask(Task task, boolean success) {
+		try {
+			Task done = success ? taskStoreService.completeTask(task) : taskStoreService.failTask(task);
+			if (done == null) {
+				// lease expired and the task was reclaimed meanwhile
+				logger.warn("Task {} of workflow {} changed while running, dropping result", task.getId(),
+						task.getWorkflowId());
+				return;
+			}
+			sendTaskComplete(done);
+			logger.info("Task {} of workflow {} {}.", done.getId(), done.getWorkflowId(), done.getStatus());
+		}
+		catch (Exception e) {
+			// the lease will expire and the task will be reclaimed
+			logger.error("Error finishing task " + task.getId(), e);
+		}
+	}
+
+	/**
+	 * Renews the leases of all running tasks in a single round.
+	 */
+	@Scheduled(fixedDelayString = "${worker.lease.heartbeat:20000}")
+	public void heartbeat() {
+		if (running.isEmpty()) {
+			return;
+		}
+		try {
+			int renewed = taskStoreService.renewLeases(running.keySet(), workerId);
+			logger.debug("Renewed {} of {} task leases", renewed, running.size());
 		}
 		catch (Exception e) {
-			logger.error("Error processing task " + msg.getId(), e);
+			logger.error("Error renewing task leases", e);
 		}
 	}
 
-	private void doWork() throws InterruptedException {
-		Random rand = new Random();
-		int delay = (rand.nextInt(20) + 1) * 1000;
+	private void doWork(Task task) throws InterruptedException, IOException {
+		int delay = (ThreadLocalRandom.current().nextInt(20) + 1) * 1000;
 		Thread.sleep(delay); // Simulate time-consuming task
 
-		return;
+		// Simulate a result, streaming the input back as the output
+		if (task.getInput() != null || task.getInputRef() != null) {
+			try (InputStream in = payloadService.openInput(task)) {
+				payloadService.writeOutput(task, in);
+			}
+		}
 	}
 
 	/**
-	 * Sends a message to the RabbitMQ queue.
-	 * @param message The message to send.
-	 * @throws Exception If an error occurs while sending the message.
+	 * Enqueues a completion message for the RabbitMQ queue.
+	 * @param task The completed task.
+	 * @throws Exception If an error occurs while enqueuing the message.
 	 */
 	public void sendTaskComplete(Task task) throws Exception {
-		try (Connection connection = factory.newConnection(); Channel channel = connection.createChannel()) {
-			// Declare a durable queue
-			channel.queueDeclare(TASK_COMPLETE_QUEUE_NAME, true, false, false, null);
+		byte[] message = codec.encode(task);
 
-			String message = objectMapper.writeValueAsString(task);
+		// Hand over to the pipelined publisher
+		completionPublisher.publish(message);
+		logger.debug(" [x] Sent completion of task {} ({} bytes)", task.getId(), message.length);
+	}
 
-			// Publish a message to the queue
-			channel.basicPublish("", TASK_COMPLETE_QUEUE_NAME, MessageProperties.PERSISTENT_TEXT_PLAIN,
-					message.getBytes("UTF-8"));
-			logger.info(" [x] Sent '" + message + "'");
+	@PreDestroy
+	public void close() throws Exception {
+		for (Subscription subscription : subscriptions) {
+			if (subscription.channel().isOpen()) {
+				// stop deliveries, let running tasks finish and ack
+				subscription.channel().basicCancel(subscription.consumerTag());
+			}
+		}
+		if (executor != null) {
+			executor.shutdown();
+			executor.awaitTermination(30, TimeUnit.SECONDS);
 		}
+		if (requeuer != null) {
+			requeuer.shutdownNow();
+		}
+		if (receiveConnection != null && receiveConnection.isOpen()) {
+			// unacked deliveries are requeued by the broker
+			receiveConnection.close();
+		}
+		if (completionPublisher != null) {
+			completionPublisher.close();
+		}
+		if (publishConnection != null && publishConnection.isOpen()) {
+			publishConnection.close();
+		}
+	}
+
+	private record Subscription(Channel channel, String consumerTag) {
 	}
 
 }
@@ -0,0 +1,24 @@
+package com.smartcommunity.workflowpoc.api;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Outcome of one workflow of a bulk submission.
+ *
+ * @param line The line of the workflow in the request body, from 1.
+ * @param id The ID of the started workflow, or null if rejected.
+ * @param status The status of the started workflow, or null if rejected.
+ * @param error The reason why the workflow was rejected, or null if started.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BulkResult(int line, String id, String status, String error) {
+
+	public static BulkResult started(int line, String id, String status) {
+		return new BulkResult(line, id, status, null);
+	}
+
+	public static BulkResult rejected(int line, String error) {
+		return new BulkResult(line, null, null, error);
+	}
+
+}
@@ -0,0 +1,12 @@
+package com.smartcommunity.workflowpoc.api;
+
+import java.util.List;
+
+/**
+ * A window of results with an opaque cursor to the next one.
+ *
+ * @param content The results.
+ * @param next The cursor of the next window, or null on the last one.
+ */
+public record CursorPage<T>(List<T> content, String next) {
+}
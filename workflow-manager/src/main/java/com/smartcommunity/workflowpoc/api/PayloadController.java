@@ -0,0 +1,62 @@
+package com.smartcommunity.workflowpoc.api;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.smartcommunity.workflowpoc.services.PayloadService;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * REST controller for large task payloads, stored once and referenced by id
+ * from the tasks.
+ */
+@RestController
+@RequestMapping("/api/payload")
+@CrossOrigin(origins = "*", maxAge = 3600, allowedHeaders = "*", exposedHeaders = "*")
+public class PayloadController {
+
+	@Autowired
+	private PayloadService payloadService;
+
+	/**
+	 * Stores a payload streamed in the request body, to be referenced as the
+	 * inputRef of tasks.
+	 * @param request The payload, as application/octet-stream.
+	 * @return The id and size of the stored payload.
+	 */
+	@PostMapping(path = "", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+	public ResponseEntity<Map<String, Object>> storePayload(HttpServletRequest request) throws IOException {
+		String id = payloadService.store(request.getInputStream());
+		return ResponseEntity.ok(Map.of("id", id, "size", payloadService.size(id)));
+	}
+
+	/**
+	 * Streams a stored payload.
+	 * @param id The id of the payload.
+	 * @return The payload, as raw bytes.
+	 */
+	@GetMapping("/{id}")
+	public ResponseEntity<StreamingResponseBody> getPayload(@PathVariable String id) {
+		long size = payloadService.size(id);
+		if (size < 0) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok()
+			.contentType(MediaType.APPLICATION_OCTET_STREAM)
+			.contentLength(size)
+			.body(out -> payloadService.writeTo(null, id, out));
+	}
+
+}
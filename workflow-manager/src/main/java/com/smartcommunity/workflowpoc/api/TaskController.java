@@ -4,12 +4,15 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.smartcommunity.workflowpoc.domain.Task;
+import com.smartcommunity.workflowpoc.services.PayloadService;
 import com.smartcommunity.workflowpoc.services.TaskStoreService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 /**
  * REST controller for managing workflows.
@@ -22,6 +25,9 @@ public class TaskController {
     @Autowired
     private TaskStoreService taskService;
 
+    @Autowired
+    private PayloadService payloadService;
+
 
     /**
      * Retrieves a task by its ID.
@@ -33,5 +39,39 @@ public class TaskController {
     public ResponseEntity<Task> getTask(@PathVariable String id) {
         return  ResponseEntity.ok(taskService.getTaskById(id) );
     }
+
+    /**
+     * Streams the input payload of a task.
+     * 
+     * @param id The ID of the task.
+     * @return The payload, inline or from the blob store.
+     */
+    @GetMapping("/{id}/input")
+    public ResponseEntity<StreamingResponseBody> getTaskInput(@PathVariable String id) {
+        Task task = taskService.getTaskPayloads(id);
+        if (task == null || (task.getInput() == null && task.getInputRef() == null)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(out -> payloadService.writeTo(task.getInput(), task.getInputRef(), out));
+    }
+
+    /**
+     * Streams the output payload of a finished task.
+     * 
+     * @param id The ID of the task.
+     * @return The payload, inline or from the blob store.
+     */
+    @GetMapping("/{id}/output")
+    public ResponseEntity<StreamingResponseBody> getTaskOutput(@PathVariable String id) {
+        Task task = taskService.getTaskPayloads(id);
+        if (task == null || (task.getOutput() == null && task.getOutputRef() == null)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(out -> payloadService.writeTo(task.getOutput(), task.getOutputRef(), out));
+    }
     
 }
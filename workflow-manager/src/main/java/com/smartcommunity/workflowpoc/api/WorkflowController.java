@@ -1,21 +1,50 @@
 package com.smartcommunity.workflowpoc.api;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.smartcommunity.workflowpoc.domain.Workflow;
+import com.smartcommunity.workflowpoc.repository.WorkflowSpecifications;
 import com.smartcommunity.workflowpoc.services.WorkflowService;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.KeysetScrollPosition;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.ObjectMapper;
 
 /**
  * REST controller for managing workflows.
@@ -25,16 +54,65 @@ import org.springframework.web.bind.annotation.PathVariable;
 @CrossOrigin(origins = "*", maxAge = 3600, allowedHeaders = "*", exposedHeaders = "*")
 public class WorkflowController {
 
+	private static final Logger logger = LoggerFactory.getLogger(WorkflowController.class);
+
 	@Autowired
 	private WorkflowService workflowService;
 
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Value("${bulk.batch-size:500}")
+	private int bulkBatchSize;
+
+	private static final Set<String> SORTABLE = Set.of("id", "name", "status", "createdAt", "updatedAt");
+
+	private static final int MAX_PAGE_SIZE = 1000;
+
 	/**
-	 * Lists all workflows.
+	 * Lists workflows, one page at a time.
+	 * @param status Only workflows in this status.
+	 * @param name Only workflows whose name starts with this prefix.
+	 * @param createdFrom Only workflows created at or after this time (epoch millis).
+	 * @param createdTo Only workflows created before this time (epoch millis).
 	 */
-
 	@GetMapping("")
-	public Page<Workflow> listWorkflows(Pageable pageable) {
-		return new PageImpl<>(workflowService.listWorkflows(), pageable, workflowService.listWorkflows().size());
+	public Page<Workflow> listWorkflows(@RequestParam(required = false) String status,
+			@RequestParam(required = false) String name, @RequestParam(required = false) Long createdFrom,
+			@RequestParam(required = false) Long createdTo, Pageable pageable) {
+		// sort only on indexed columns
+		Sort sort = Sort.by(pageable.getSort().filter(o -> SORTABLE.contains(o.getProperty())).toList());
+		Pageable page = PageRequest.of(pageable.getPageNumber(), Math.min(pageable.getPageSize(), MAX_PAGE_SIZE),
+				sort.isSorted() ? sort : Sort.by(Sort.Order.desc("createdAt")));
+		return workflowService.listWorkflows(
+				WorkflowSpecifications.filter(status, name, createdFrom, createdTo), page);
+	}
+
+	/**
+	 * Lists workflows newest first, with keyset pagination for deep pages.
+	 * @param cursor The cursor returned by the previous call, if any.
+	 * @param size The number of workflows to return.
+	 */
+	@GetMapping("/scroll")
+	public ResponseEntity<CursorPage<Workflow>> scrollWorkflows(@RequestParam(required = false) String cursor,
+			@RequestParam(defaultValue = "20") int size, @RequestParam(required = false) String status,
+			@RequestParam(required = false) String name, @RequestParam(required = false) Long createdFrom,
+			@RequestParam(required = false) Long createdTo) {
+		ScrollPosition position;
+		try {
+			position = decodeCursor(cursor);
+		}
+		catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().build();
+		}
+
+		Window<Workflow> window = workflowService.scrollWorkflows(
+				WorkflowSpecifications.filter(status, name, createdFrom, createdTo), position,
+				Math.max(1, Math.min(size, MAX_PAGE_SIZE)));
+		String next = window.hasNext() && !window.isEmpty()
+				? encodeCursor((KeysetScrollPosition) window.positionAt(window.size() - 1))
+				: null;
+		return ResponseEntity.ok(new CursorPage<>(window.getContent(), next));
 	}
 
 	/**
@@ -42,8 +120,86 @@ public class WorkflowController {
 	 * @param workflow The workflow to start.
 	 */
 	@PostMapping("")
-	public Workflow startWorkflow(@RequestBody Workflow workflow) {
-		return workflowService.startWorkflow(workflow);
+	public ResponseEntity<Workflow> startWorkflow(@RequestBody Workflow workflow) {
+		try {
+			return ResponseEntity.ok(workflowService.startWorkflow(workflow));
+		}
+		catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().build();
+		}
+	}
+
+	/**
+	 * Starts many workflows from a stream of JSON objects, one per line.
+	 * Workflows are read and stored in batches, and the result of each one is
+	 * streamed back as a line once its batch is stored, so that neither the
+	 * request nor the response is held in memory.
+	 * @param request The workflows to start, as NDJSON.
+	 * @param response The result of each workflow, as NDJSON, in order.
+	 */
+	@PostMapping(path = "/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+	public void startWorkflows(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+		response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+		BufferedReader reader = request.getReader();
+		Writer writer = response.getWriter();
+
+		List<Submission> batch = new ArrayList<>(bulkBatchSize);
+		int number = 0;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			number++;
+			if (line.isBlank()) {
+				continue;
+			}
+			try {
+				batch.add(new Submission(number, objectMapper.readValue(line, Workflow.class), null));
+			}
+			catch (JacksonException e) {
+				batch.add(new Submission(number, null, "Invalid workflow: " + e.getOriginalMessage()));
+			}
+			if (batch.size() == bulkBatchSize) {
+				submit(batch, writer);
+			}
+		}
+		submit(batch, writer);
+	}
+
+	/**
+	 * Starts a batch of workflows and writes their results, then clears it.
+	 */
+	private void submit(List<Submission> batch, Writer writer) throws IOException {
+		if (batch.isEmpty()) {
+			return;
+		}
+		List<Workflow> workflows = batch.stream().map(Submission::workflow).filter(Objects::nonNull).toList();
+		List<String> errors;
+		try {
+			errors = workflowService.startWorkflows(workflows);
+		}
+		catch (RuntimeException e) {
+			logger.error("Error storing a batch of {} workflows", workflows.size(), e);
+			errors = workflows.stream().map(w -> "Store error").toList();
+		}
+
+		int i = 0;
+		for (Submission submission : batch) {
+			BulkResult result;
+			if (submission.workflow() == null) {
+				result = BulkResult.rejected(submission.line(), submission.error());
+			}
+			else {
+				String error = errors.get(i++);
+				result = error == null
+						? BulkResult.started(submission.line(), submission.workflow().getId(),
+								submission.workflow().getStatus())
+						: BulkResult.rejected(submission.line(), error);
+			}
+			writer.write(objectMapper.writeValueAsString(result));
+			writer.write('\n');
+		}
+		writer.flush();
+		batch.clear();
 	}
 
 	/**
@@ -60,4 +216,56 @@ public class WorkflowController {
 		return ResponseEntity.ok(workflow);
 	}
 
+	/**
+	 * Streams the task state changes of a workflow as Server-Sent Events,
+	 * until the workflow finishes.
+	 * @param id The ID of the workflow.
+	 * @return A stream of "delta" events.
+	 */
+	@GetMapping(path = "/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public ResponseEntity<SseEmitter> streamWorkflow(@PathVariable String id) {
+		SseEmitter emitter = workflowService.streamWorkflow(id);
+		if (emitter == null) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok(emitter);
+	}
+
+	/**
+	 * Counts the tasks of a workflow per status.
+	 * @param id The ID of the workflow.
+	 * @return The number of tasks in each status.
+	 */
+	@GetMapping("/{id}/summary")
+	public ResponseEntity<Map<String, Long>> getWorkflowSummary(@PathVariable String id) {
+		Map<String, Long> summary = workflowService.getWorkflowSummary(id);
+		if (summary == null) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok(summary);
+	}
+
+	private record Submission(int line, Workflow workflow, String error) {
+	}
+
+	private static ScrollPosition decodeCursor(String cursor) {
+		if (cursor == null || cursor.isEmpty()) {
+			return ScrollPosition.keyset();
+		}
+		String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+		int sep = value.indexOf(':');
+		if (sep < 0) {
+			throw new IllegalArgumentException("Invalid cursor");
+		}
+		Map<String, Object> keys = new LinkedHashMap<>();
+		keys.put("createdAt", Long.parseLong(value.substring(0, sep)));
+		keys.put("id", value.substring(sep + 1));
+		return ScrollPosition.forward(keys);
+	}
+
+	private static String encodeCursor(KeysetScrollPosition position) {
+		String value = position.getKeys().get("createdAt") + ":" + position.getKeys().get("id");
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+	}
+
 }
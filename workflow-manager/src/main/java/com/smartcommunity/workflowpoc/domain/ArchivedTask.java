@@ -0,0 +1,55 @@
+package com.smartcommunity.workflowpoc.domain;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+/**
+ * A task of a finished workflow, moved out of the task table by the archiver.
+ * Rows are written and read with JDBC, the entity only declares the table.
+ */
+@Entity
+@Table(name = "task_archive", indexes = @Index(name = "idx_task_archive_workflow", columnList = "workflowId, pos"))
+public class ArchivedTask {
+
+	@Id
+	private String id;
+
+	private Integer version;
+
+	private String type;
+
+	private long createdAt;
+
+	private long updatedAt;
+
+	@Column(name = "status_code")
+	private Short status;
+
+	private String workflowId;
+
+	@Column(name = "pos")
+	private Integer position;
+
+	private String ref;
+
+	private String dependsOn;
+
+	@Column(length = Task.MAX_INLINE_PAYLOAD)
+	private String input;
+
+	private String inputRef;
+
+	@Column(length = Task.MAX_INLINE_PAYLOAD)
+	private String output;
+
+	private String outputRef;
+
+	private long archivedAt;
+
+	public ArchivedTask() {
+	}
+
+}
@@ -0,0 +1,62 @@
+package com.smartcommunity.workflowpoc.domain;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+/**
+ * A task to dispatch, written in the same transaction that made it ready.
+ */
+@Entity
+@Table(name = "task_outbox", indexes = { @Index(name = "idx_outbox_available", columnList = "availableAt, id") })
+public class OutboxEntry {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	private Long id;
+
+	private String taskId;
+
+	private String workflowId;
+
+	private long availableAt;
+
+	public OutboxEntry() {
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public String getTaskId() {
+		return taskId;
+	}
+
+	public void setTaskId(String taskId) {
+		this.taskId = taskId;
+	}
+
+	public String getWorkflowId() {
+		return workflowId;
+	}
+
+	public void setWorkflowId(String workflowId) {
+		this.workflowId = workflowId;
+	}
+
+	public long getAvailableAt() {
+		return availableAt;
+	}
+
+	public void setAvailableAt(long availableAt) {
+		this.availableAt = availableAt;
+	}
+
+}
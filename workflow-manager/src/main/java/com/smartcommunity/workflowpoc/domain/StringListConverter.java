@@ -0,0 +1,25 @@
+package com.smartcommunity.workflowpoc.domain;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/**
+ * Stores a list of strings as a single comma separated column.
+ */
+@Converter
+public class StringListConverter implements AttributeConverter<List<String>, String> {
+
+    @Override
+    public String convertToDatabaseColumn(List<String> values) {
+        return values == null || values.isEmpty() ? null : String.join(",", values);
+    }
+
+    @Override
+    public List<String> convertToEntityAttribute(String value) {
+        return value == null || value.isEmpty() ? Collections.emptyList() : Arrays.asList(value.split(","));
+    }
+}
@@ -2,12 +2,27 @@ package com.smartcommunity.workflowpoc.domain;
 
 import org.springframework.data.annotation.Version;
 
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
 
 @Entity
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Table(indexes = {
+        @Index(name = "idx_task_workflow", columnList = "workflowId, pos"),
+        @Index(name = "idx_task_workflow_status", columnList = "workflowId, status_code, updatedAt"),
+        @Index(name = "idx_task_lease", columnList = "leaseExpiresAt") })
 public class Task {
 
+    public static final int MAX_INLINE_PAYLOAD = 8192;
+
     @Id
     private String id;
 
@@ -17,9 +32,33 @@ public class Task {
     private String type;
     private long createdAt;
     private long updatedAt;
+    @Column(name = "status_code")
+    @Convert(converter = TaskStatusConverter.class)
     private String status;
     private String workflowId;
 
+    private String leaseOwner;
+    private Long leaseExpiresAt;
+
+    @Column(name = "pos")
+    private Integer position;
+
+    private String ref;
+
+    @Convert(converter = StringListConverter.class)
+    private List<String> dependsOn;
+
+    /**
+     * Inline payloads, up to {@link #MAX_INLINE_PAYLOAD} bytes of UTF-8;
+     * larger ones are kept in the blob store and referenced by id.
+     */
+    @Column(length = MAX_INLINE_PAYLOAD)
+    private String input;
+    private String inputRef;
+    @Column(length = MAX_INLINE_PAYLOAD)
+    private String output;
+    private String outputRef;
+
     public Task() {}
 
     public String getId() {
@@ -67,4 +106,67 @@ public class Task {
     public void setWorkflowId(String workflowId) {
         this.workflowId = workflowId;
     }
+
+    public Integer getPosition() {
+        return position;
+    }
+    public void setPosition(Integer position) {
+        this.position = position;
+    }
+
+    public String getRef() {
+        return ref;
+    }
+    public void setRef(String ref) {
+        this.ref = ref;
+    }
+
+    public List<String> getDependsOn() {
+        return dependsOn;
+    }
+    public void setDependsOn(List<String> dependsOn) {
+        this.dependsOn = dependsOn;
+    }
+
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+    public void setLeaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+    }
+
+    public Long getLeaseExpiresAt() {
+        return leaseExpiresAt;
+    }
+    public void setLeaseExpiresAt(Long leaseExpiresAt) {
+        this.leaseExpiresAt = leaseExpiresAt;
+    }
+
+    public String getInput() {
+        return input;
+    }
+    public void setInput(String input) {
+        this.input = input;
+    }
+
+    public String getInputRef() {
+        return inputRef;
+    }
+    public void setInputRef(String inputRef) {
+        this.inputRef = inputRef;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+    public void setOutput(String output) {
+        this.output = output;
+    }
+
+    public String getOutputRef() {
+        return outputRef;
+    }
+    public void setOutputRef(String outputRef) {
+        this.outputRef = outputRef;
+    }
 }
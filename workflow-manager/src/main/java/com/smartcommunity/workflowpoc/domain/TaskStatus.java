@@ -1,9 +1,59 @@
 package com.smartcommunity.workflowpoc.domain;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Status of a task, stored as a one byte code.
+ */
 public enum TaskStatus {
 
-    PENDING,
-    IN_PROGRESS,
-    COMPLETED,
-    FAILED
+    PENDING(1),
+    IN_PROGRESS(2),
+    COMPLETED(3),
+    FAILED(4);
+
+    private static final TaskStatus[] BY_CODE = new TaskStatus[5];
+
+    static {
+        for (TaskStatus status : values()) {
+            BY_CODE[status.code] = status;
+        }
+    }
+
+    private final short code;
+
+    TaskStatus(int code) {
+        this.code = (short) code;
+    }
+
+    /**
+     * Returns the code stored for this status.
+     */
+    public short code() {
+        return code;
+    }
+
+    /**
+     * Returns the status stored with the given code.
+     * @throws IllegalArgumentException If the code is unknown.
+     */
+    public static TaskStatus ofCode(int code) {
+        TaskStatus status = code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+        if (status == null) {
+            throw new IllegalArgumentException("Unknown task status code " + code);
+        }
+        return status;
+    }
+
+    /**
+     * Returns a map with a zero count for every status, in declaration order.
+     */
+    public static Map<String, Long> emptySummary() {
+        Map<String, Long> summary = new LinkedHashMap<>();
+        for (TaskStatus status : values()) {
+            summary.put(status.name(), 0L);
+        }
+        return summary;
+    }
 }
@@ -0,0 +1,21 @@
+package com.smartcommunity.workflowpoc.domain;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/**
+ * Stores a task status as its code rather than its name.
+ */
+@Converter
+public class TaskStatusConverter implements AttributeConverter<String, Short> {
+
+    @Override
+    public Short convertToDatabaseColumn(String status) {
+        return status == null ? null : TaskStatus.valueOf(status).code();
+    }
+
+    @Override
+    public String convertToEntityAttribute(Short code) {
+        return code == null ? null : TaskStatus.ofCode(code).name();
+    }
+}
@@ -2,17 +2,45 @@ package com.smartcommunity.workflowpoc.domain;
 
 import java.util.Collections;
 import java.util.List;
-
+import java.util.Map;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+
+@Entity
+@Table(indexes = {
+		@Index(name = "idx_workflow_created", columnList = "createdAt, id"),
+		@Index(name = "idx_workflow_status_created", columnList = "status, createdAt, id"),
+		@Index(name = "idx_workflow_status_updated", columnList = "status, updatedAt, id"),
+		@Index(name = "idx_workflow_name", columnList = "name") })
 public class Workflow {
 
+	@Id
 	private String id;
 
 	private String name;
 
+	@Transient
 	private List<Task> tasks = Collections.emptyList();
 
 	private boolean parallel = false;
 
+	private Integer priority;
+
+	private String status;
+
+	private long createdAt;
+
+	private long updatedAt;
+
+	private int taskCount;
+
+	@Transient
+	private Map<String, Long> summary;
+
 	public Workflow() {
 	}
 
@@ -48,4 +76,52 @@ public class Workflow {
 		this.parallel = parallel;
 	}
 
+	public Integer getPriority() {
+		return priority;
+	}
+
+	public void setPriority(Integer priority) {
+		this.priority = priority;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	public void setCreatedAt(long createdAt) {
+		this.createdAt = createdAt;
+	}
+
+	public long getUpdatedAt() {
+		return updatedAt;
+	}
+
+	public void setUpdatedAt(long updatedAt) {
+		this.updatedAt = updatedAt;
+	}
+
+	public int getTaskCount() {
+		return taskCount;
+	}
+
+	public void setTaskCount(int taskCount) {
+		this.taskCount = taskCount;
+	}
+
+	public Map<String, Long> getSummary() {
+		return summary;
+	}
+
+	public void setSummary(Map<String, Long> summary) {
+		this.summary = summary;
+	}
+
 }
@@ -0,0 +1,8 @@
+package com.smartcommunity.workflowpoc.domain;
+
+public enum WorkflowStatus {
+
+    RUNNING,
+    COMPLETED,
+    FAILED
+}
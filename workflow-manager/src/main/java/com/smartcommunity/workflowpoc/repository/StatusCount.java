@@ -0,0 +1,11 @@
+package com.smartcommunity.workflowpoc.repository;
+
+/**
+ * Projection of the number of tasks in a given status.
+ */
+public interface StatusCount {
+
+    String getStatus();
+
+    long getCount();
+}
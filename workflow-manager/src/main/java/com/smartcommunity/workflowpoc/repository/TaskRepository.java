@@ -1,9 +1,28 @@
 package com.smartcommunity.workflowpoc.repository;
 
+import java.util.List;
+import java.util.stream.Stream;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
 import com.smartcommunity.workflowpoc.domain.Task;
 
+import jakarta.persistence.QueryHint;
+
 public interface TaskRepository extends JpaRepository<Task, String> {
 
+    List<Task> findByWorkflowIdOrderByPositionAsc(String workflowId);
+
+    @Query("select t.status as status, count(t) as count from Task t where t.workflowId = :workflowId group by t.status")
+    List<StatusCount> countByStatus(@Param("workflowId") String workflowId);
+
+    @Query("select t from Task t where t.workflowId in "
+            + "(select w.id from Workflow w where w.status = :status) order by t.workflowId, t.position")
+    @QueryHints({ @QueryHint(name = "org.hibernate.fetchSize", value = "1000"),
+            @QueryHint(name = "org.hibernate.readOnly", value = "true") })
+    Stream<Task> streamByWorkflowStatus(@Param("status") String status);
+
 }
@@ -0,0 +1,19 @@
+package com.smartcommunity.workflowpoc.repository;
+
+import java.util.stream.Stream;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.QueryHints;
+
+import com.smartcommunity.workflowpoc.domain.Workflow;
+
+import jakarta.persistence.QueryHint;
+
+public interface WorkflowRepository extends JpaRepository<Workflow, String>, JpaSpecificationExecutor<Workflow> {
+
+    @QueryHints({ @QueryHint(name = "org.hibernate.fetchSize", value = "1000"),
+            @QueryHint(name = "org.hibernate.readOnly", value = "true") })
+    Stream<Workflow> streamByStatus(String status);
+
+}
@@ -0,0 +1,41 @@
+package com.smartcommunity.workflowpoc.repository;
+
+import org.springframework.data.jpa.domain.Specification;
+
+import com.smartcommunity.workflowpoc.domain.Workflow;
+
+/**
+ * Query filters for workflows. Every filter maps to an indexed column; a null
+ * value disables the filter.
+ */
+public final class WorkflowSpecifications {
+
+    private WorkflowSpecifications() {
+    }
+
+    public static Specification<Workflow> filter(String status, String name, Long createdFrom, Long createdTo) {
+        return Specification.allOf(hasStatus(status), nameStartsWith(name), createdBetween(createdFrom, createdTo));
+    }
+
+    public static Specification<Workflow> hasStatus(String status) {
+        return (root, query, cb) -> status == null ? cb.conjunction() : cb.equal(root.get("status"), status);
+    }
+
+    /**
+     * Prefix match, so that the name index can be used.
+     */
+    public static Specification<Workflow> nameStartsWith(String name) {
+        return (root, query, cb) -> name == null || name.isEmpty() ? cb.conjunction()
+                : cb.like(root.get("name"), escape(name) + "%", '\\');
+    }
+
+    public static Specification<Workflow> createdBetween(Long from, Long to) {
+        return (root, query, cb) -> cb.and(
+                from == null ? cb.conjunction() : cb.greaterThanOrEqualTo(root.get("createdAt"), from),
+                to == null ? cb.conjunction() : cb.lessThan(root.get("createdAt"), to));
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
@@ -0,0 +1,58 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Store of large task payloads, written once and referenced by id from the
+ * tasks, so that they travel neither in the task messages nor in the task
+ * rows. Payloads are streamed in and out, never held whole in memory.
+ *
+ * The implementation is selected with the payload.store.type property:
+ * "file", the default, keeps the payloads in a directory shared by the
+ * manager and the workers.
+ */
+public interface BlobStore {
+
+    /**
+     * Stores a payload, reading the source until its end.
+     * @param source The payload content.
+     * @return The id of the stored payload.
+     * @throws IOException If the payload could not be stored.
+     */
+    String put(ReadableByteChannel source) throws IOException;
+
+    /**
+     * Opens a stored payload for reading.
+     * @param id The id of the payload.
+     * @return A channel positioned at the start of the payload.
+     * @throws IOException If the payload does not exist or can not be read.
+     */
+    ReadableByteChannel open(String id) throws IOException;
+
+    /**
+     * Writes a stored payload to the given target.
+     * @param id The id of the payload.
+     * @param target Where to write the payload.
+     * @return The number of bytes written.
+     * @throws IOException If the payload does not exist or can not be read.
+     */
+    long transferTo(String id, WritableByteChannel target) throws IOException;
+
+    /**
+     * Returns the size of a stored payload.
+     * @param id The id of the payload.
+     * @return The size in bytes.
+     * @throws IOException If the payload does not exist.
+     */
+    long size(String id) throws IOException;
+
+    /**
+     * Deletes a stored payload, if it exists.
+     * @param id The id of the payload.
+     * @throws IOException If the payload could not be deleted.
+     */
+    void delete(String id) throws IOException;
+
+}
@@ -0,0 +1,194 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Delivery;
+import com.smartcommunity.workflowpoc.domain.Task;
+import com.smartcommunity.workflowpoc.domain.TaskStatus;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Consumer of task completion messages, applying them in micro-batches.
+ *
+ * Deliveries are decoded on the consumer thread and queued; a drainer thread
+ * takes whatever queued up, up to the batch size, groups it by workflow and
+ * applies the groups in parallel, each group in arrival order. Once the whole
+ * batch is applied it is acknowledged with a single multiple-ack of its last
+ * delivery tag. The prefetch bounds the number of unacked completions held
+ * by the manager.
+ */
+public class CompletionConsumer implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompletionConsumer.class);
+
+    private final Channel channel;
+    private final TaskCodec codec;
+    private final TaskCompleteProcessor processor;
+    private final int batchSize;
+    private final ExecutorService executor;
+    private final BlockingQueue<Received> queue = new LinkedBlockingQueue<>();
+    private final Thread drainer;
+    private final String consumerTag;
+
+    private final Counter processed;
+    private final DistributionSummary batches;
+
+    private volatile boolean running = true;
+
+    public CompletionConsumer(Connection connection, String queueName, TaskCodec codec,
+            TaskCompleteProcessor processor, int prefetch, int batchSize, int threads, MeterRegistry registry)
+            throws IOException {
+        this.codec = codec;
+        this.processor = processor;
+        this.batchSize = batchSize;
+        this.executor = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("task-completion-", 0).factory());
+
+        this.processed = Counter.builder("wfm.completion.processed")
+            .description("Task completions applied")
+            .register(registry);
+        this.batches = DistributionSummary.builder("wfm.completion.batch")
+            .description("Task completions acknowledged together")
+            .register(registry);
+        Gauge.builder("wfm.completion.backlog", queue, BlockingQueue::size)
+            .description("Task completions received and not yet applied")
+            .register(registry);
+
+        this.drainer = new Thread(this::run, "task-completion-drainer");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+
+        this.channel = connection.createChannel();
+        channel.queueDeclare(queueName, true, false, false, null);
+        channel.basicQos(prefetch);
+        this.consumerTag = channel.basicConsume(queueName, false, (tag, delivery) -> receive(delivery), tag -> {
+        });
+    }
+
+    private void receive(Delivery delivery) {
+        TaskCompletion completion = null;
+        try {
+            Task task = codec.decode(delivery.getProperties().getContentType(), delivery.getBody());
+            logger.debug(" [x] Received completion of task {}: {}", task.getId(), task.getStatus());
+            completion = new TaskCompletion(task.getId(), task.getWorkflowId(),
+                    TaskStatus.COMPLETED.name().equals(task.getStatus()));
+        } catch (RuntimeException e) {
+            // any failure here would close the channel and stop all completions;
+            // still queued, so that it is acked in order with the others
+            logger.error("Discarding unreadable completion message", e);
+        }
+        queue.add(new Received(delivery.getEnvelope().getDeliveryTag(), completion));
+    }
+
+    private void run() {
+        List<Received> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Received first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                apply(batch);
+                // deliveries are queued in tag order, the last one covers the batch
+                ack(batch.get(batch.size() - 1).deliveryTag(), batch.size());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void apply(List<Received> batch) {
+        Map<String, List<TaskCompletion>> groups = new LinkedHashMap<>();
+        List<TaskCompletion> unknown = new ArrayList<>();
+        for (Received r : batch) {
+            if (r.completion() == null) {
+                continue;
+            }
+            if (r.completion().workflowId() == null) {
+                unknown.add(r.completion());
+            } else {
+                groups.computeIfAbsent(r.completion().workflowId(), k -> new ArrayList<>()).add(r.completion());
+            }
+        }
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>(groups.size() + unknown.size());
+        groups.forEach((workflowId, completions) -> futures.add(CompletableFuture.runAsync(
+                () -> applyGroup(workflowId, completions), executor)));
+        unknown.forEach(c -> futures.add(CompletableFuture.runAsync(
+                () -> applyGroup(null, List.of(c)), executor)));
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    }
+
+    private void applyGroup(String workflowId, List<TaskCompletion> completions) {
+        try {
+            if (workflowId != null) {
+                processor.processTaskCompletions(workflowId, completions);
+            } else {
+                completions.forEach(c -> processor.processTaskCompletion(c.taskId(), c.success()));
+            }
+        } catch (Exception e) {
+            logger.error("Error processing completions of workflow " + workflowId, e);
+        } finally {
+            processed.increment(completions.size());
+        }
+    }
+
+    private void ack(long deliveryTag, int count) {
+        try {
+            channel.basicAck(deliveryTag, true);
+            batches.record(count);
+        } catch (Exception e) {
+            // unacked completions are redelivered and discarded as duplicates
+            logger.error("Error acking completions up to " + deliveryTag, e);
+        }
+    }
+
+    /**
+     * Returns the number of completions received and not yet applied.
+     */
+    public int getBacklog() {
+        return queue.size();
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (channel.isOpen()) {
+            // stop deliveries, apply and ack what was already received
+            channel.basicCancel(consumerTag);
+        }
+        running = false;
+        drainer.join(10000);
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        if (channel.isOpen()) {
+            channel.close();
+        }
+    }
+
+    private record Received(long deliveryTag, TaskCompletion completion) {
+    }
+
+}
@@ -0,0 +1,311 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Admission control between the workflow engine and the broker.
+ *
+ * Ready tasks are queued per workflow and released to the broker only while
+ * the number of tasks in flight, dispatched and not yet completed, is below
+ * the window size. This bounds both the broker queues and the work handed
+ * to workers, whatever the number of ready tasks. Workflows with queued
+ * tasks take turns in weighted round robin, each turn releasing as many
+ * tasks as the workflow priority plus one, so that a huge workflow can not
+ * hold back the others.
+ *
+ * A slot is held until the completion of its task, or until the lease
+ * reaper reclaims the task: a task waiting in the broker is alive, however
+ * long it waits, so slots are never freed on time alone.
+ *
+ * Tasks taken off the queues are published on a virtual thread, never on the
+ * caller: completions, cancellations and reclaims may come in holding a
+ * workflow stripe, and must not wait on the broker.
+ */
+@Service
+public class DispatchScheduler {
+
+	private static final Logger logger = LoggerFactory.getLogger(DispatchScheduler.class);
+
+	@Autowired
+	private TaskTransport taskTransport;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Autowired
+	private WorkflowMetrics metrics;
+
+	@Value("${scheduler.max-in-flight:10000}")
+	private int maxInFlight;
+
+	@Value("${messaging.max-priority:9}")
+	private int maxPriority;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final ExecutorService sender = Executors.newVirtualThreadPerTaskExecutor();
+
+	private final Map<String, Flow> flows = new HashMap<>();
+
+	private final Map<String, Flow> running = new HashMap<>();
+
+	private final Map<String, CompletableFuture<Void>> waiting = new HashMap<>();
+
+	private final ArrayDeque<Flow> active = new ArrayDeque<>();
+
+	private int queued;
+
+	@PostConstruct
+	public void init() {
+		Gauge.builder("wfm.scheduler.queued", this, DispatchScheduler::getQueued)
+			.description("Ready tasks waiting for a dispatch slot")
+			.register(meterRegistry);
+		Gauge.builder("wfm.scheduler.inflight", this, DispatchScheduler::getInFlight)
+			.description("Tasks dispatched and not yet completed")
+			.register(meterRegistry);
+	}
+
+	@PreDestroy
+	public void close() {
+		sender.shutdown();
+	}
+
+	/**
+	 * Queues a ready task for dispatch, unless it is queued or in flight
+	 * already.
+	 * @param task The task.
+	 * @param priority The priority of its workflow.
+	 * @param completedAt When the completion that made the task ready was
+	 *            applied, in nanos, or 0.
+	 * @param live Checked under the scheduler lock, whether the task is still
+	 *            to run: a workflow finishing afterwards cancels its tasks.
+	 * @return a future completed when the broker has confirmed the task, or
+	 *         when its workflow finished before it was dispatched.
+	 */
+	public CompletableFuture<Void> submit(Task task, int priority, long completedAt, BooleanSupplier live) {
+		CompletableFuture<Void> dispatched = new CompletableFuture<>();
+		List<Dispatch> dispatches;
+		lock.lock();
+		try {
+			if (running.containsKey(task.getId()) || !live.getAsBoolean()) {
+				return CompletableFuture.completedFuture(null);
+			}
+			CompletableFuture<Void> queuedAlready = waiting.putIfAbsent(task.getId(), dispatched);
+			if (queuedAlready != null) {
+				return queuedAlready;
+			}
+			Flow flow = flows.computeIfAbsent(task.getWorkflowId(), Flow::new);
+			// capped like the workflows, so that a turn stays short
+			flow.priority = Math.min(Math.max(priority, 0), Math.max(maxPriority, 0));
+			flow.queue.add(new Queued(task, System.nanoTime(), completedAt, dispatched));
+			queued++;
+			if (!flow.active) {
+				flow.active = true;
+				active.addLast(flow);
+			}
+			dispatches = drain();
+		}
+		finally {
+			lock.unlock();
+		}
+		send(dispatches);
+		return dispatched;
+	}
+
+	/**
+	 * Frees the dispatch slot of a task, if it held one.
+	 * @param taskId The ID of the completed, failed or reclaimed task.
+	 */
+	public void release(String taskId) {
+		List<Dispatch> dispatches;
+		lock.lock();
+		try {
+			Flow flow = running.remove(taskId);
+			if (flow == null) {
+				return;
+			}
+			flow.running.remove(taskId);
+			dropIfIdle(flow);
+			dispatches = drain();
+		}
+		finally {
+			lock.unlock();
+		}
+		send(dispatches);
+	}
+
+	/**
+	 * Drops the queued tasks of a finished workflow and frees the slots of
+	 * its tasks still in flight.
+	 * @param workflowId The ID of the workflow.
+	 */
+	public void cancel(String workflowId) {
+		List<Dispatch> dispatches;
+		List<Queued> dropped;
+		lock.lock();
+		try {
+			Flow flow = flows.remove(workflowId);
+			if (flow == null) {
+				return;
+			}
+			queued -= flow.queue.size();
+			dropped = new ArrayList<>(flow.queue);
+			dropped.forEach(q -> waiting.remove(q.task().getId()));
+			flow.queue.clear();
+			if (flow.active) {
+				active.remove(flow);
+				flow.active = false;
+			}
+			flow.running.forEach(running::remove);
+			flow.running.clear();
+			dispatches = drain();
+		}
+		finally {
+			lock.unlock();
+		}
+		// nothing left to dispatch for them
+		dropped.forEach(q -> q.dispatched().complete(null));
+		send(dispatches);
+	}
+
+	public int getQueued() {
+		lock.lock();
+		try {
+			return queued;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	public int getInFlight() {
+		lock.lock();
+		try {
+			return running.size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes tasks off the workflow queues while the window has room. Must be
+	 * called holding the lock.
+	 */
+	private List<Dispatch> drain() {
+		List<Dispatch> dispatches = new ArrayList<>();
+		while (running.size() < maxInFlight && !active.isEmpty()) {
+			Flow flow = active.peekFirst();
+			if (flow.credit == 0) {
+				// a new turn
+				flow.credit = flow.priority + 1;
+			}
+
+			Queued next = flow.queue.poll();
+			waiting.remove(next.task().getId());
+			queued--;
+			flow.credit--;
+			flow.running.add(next.task().getId());
+			running.put(next.task().getId(), flow);
+			dispatches.add(new Dispatch(next, flow.priority));
+
+			if (flow.queue.isEmpty()) {
+				active.pollFirst();
+				flow.active = false;
+				flow.credit = 0;
+			}
+			else if (flow.credit == 0) {
+				// end of turn, next workflow
+				active.addLast(active.pollFirst());
+			}
+		}
+		return dispatches;
+	}
+
+	private void dropIfIdle(Flow flow) {
+		if (flow.queue.isEmpty() && flow.running.isEmpty() && flows.get(flow.workflowId) == flow) {
+			flows.remove(flow.workflowId);
+		}
+	}
+
+	private void send(List<Dispatch> dispatches) {
+		if (!dispatches.isEmpty()) {
+			sender.execute(() -> publish(dispatches));
+		}
+	}
+
+	private void publish(List<Dispatch> dispatches) {
+		for (Dispatch d : dispatches) {
+			Task task = d.queued().task();
+			try {
+				taskTransport.sendTask(task, d.priority()).whenComplete((r, e) -> {
+					if (e == null) {
+						metrics.taskDispatched(task.getType(), d.queued().readyAt(), d.queued().completedAt());
+						d.queued().dispatched().complete(null);
+					}
+					else {
+						logger.error("Dispatch of task {} of workflow {} not confirmed", task.getId(),
+								task.getWorkflowId(), e);
+						release(task.getId());
+						d.queued().dispatched().completeExceptionally(e);
+					}
+				});
+			}
+			catch (Exception e) {
+				logger.error("Error dispatching task {} of workflow {}", task.getId(), task.getWorkflowId(), e);
+				release(task.getId());
+				d.queued().dispatched().completeExceptionally(e);
+			}
+		}
+	}
+
+	private static final class Flow {
+
+		private final String workflowId;
+
+		private final ArrayDeque<Queued> queue = new ArrayDeque<>();
+
+		private final Set<String> running = new HashSet<>();
+
+		private int priority;
+
+		private int credit;
+
+		private boolean active;
+
+		Flow(String workflowId) {
+			this.workflowId = workflowId;
+		}
+	}
+
+	private record Queued(Task task, long readyAt, long completedAt, CompletableFuture<Void> dispatched) {
+	}
+
+	private record Dispatch(Queued queued, int priority) {
+	}
+
+}
@@ -0,0 +1,104 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+import com.smartcommunity.workflowpoc.domain.TaskStatus;
+import com.smartcommunity.workflowpoc.domain.WorkflowStatus;
+
+/**
+ * Service for reclaiming tasks whose worker lease expired.
+ *
+ * Workers lease the tasks they run and renew the leases while alive. Expired
+ * leases are found with a range scan on the lease expiry index, moved back to
+ * PENDING with a compare-and-set and dispatched again, in batches. Tasks of
+ * workflows that finished meanwhile would never be dispatched again, and are
+ * marked FAILED instead.
+ */
+@Service
+public class LeaseReaper {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeaseReaper.class);
+
+    private static final String SELECT_SQL = "SELECT t.id, t.version, t.type, t.workflow_id, t.created_at, "
+            + "w.status AS workflow_status FROM task t JOIN workflow w ON w.id = t.workflow_id "
+            + "WHERE t.lease_expires_at < ? AND t.status_code = ? ORDER BY t.lease_expires_at LIMIT ?";
+
+    private static final String RECLAIM_SQL = "UPDATE task SET status_code = ?, version = version + 1, updated_at = ?, "
+            + "lease_owner = NULL, lease_expires_at = NULL WHERE id = ? AND version = ? AND status_code = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private WorkflowService workflowService;
+
+    @Value("${reaper.batch-size:500}")
+    private int batchSize;
+
+    @Scheduled(initialDelayString = "${reaper.interval:10000}", fixedDelayString = "${reaper.interval:10000}")
+    public void reap() {
+        try {
+            int reclaimed;
+            do {
+                reclaimed = reapBatch(System.currentTimeMillis());
+            } while (reclaimed == batchSize);
+        } catch (Exception e) {
+            logger.error("Error reclaiming expired tasks", e);
+        }
+    }
+
+    private int reapBatch(long now) {
+        List<Task> expired = jdbcTemplate.query(SELECT_SQL, (rs, i) -> {
+            Task task = new Task();
+            task.setId(rs.getString("id"));
+            task.setVersion(rs.getInt("version"));
+            task.setType(rs.getString("type"));
+            task.setWorkflowId(rs.getString("workflow_id"));
+            task.setCreatedAt(rs.getLong("created_at"));
+            // the target status, run again only while the workflow runs
+            task.setStatus(WorkflowStatus.RUNNING.name().equals(rs.getString("workflow_status"))
+                    ? TaskStatus.PENDING.name() : TaskStatus.FAILED.name());
+            return task;
+        }, now, TaskStatus.IN_PROGRESS.code(), batchSize);
+        if (expired.isEmpty()) {
+            return 0;
+        }
+
+        int[] counts = jdbcTemplate.batchUpdate(RECLAIM_SQL, expired.stream()
+            .map(t -> new Object[] { TaskStatus.valueOf(t.getStatus()).code(), now, t.getId(), t.getVersion(),
+                    TaskStatus.IN_PROGRESS.code() })
+            .toList());
+
+        List<Task> reclaimed = new ArrayList<>(expired.size());
+        int abandoned = 0;
+        for (int i = 0; i < expired.size(); i++) {
+            // a worker may have completed the task meanwhile
+            if (i < counts.length && counts[i] != 0) {
+                Task task = expired.get(i);
+                if (TaskStatus.FAILED.name().equals(task.getStatus())) {
+                    abandoned++;
+                    continue;
+                }
+                task.setVersion(task.getVersion() + 1);
+                task.setUpdatedAt(now);
+                reclaimed.add(task);
+            }
+        }
+
+        logger.info("Reclaimed {} tasks with expired lease, failed {} of finished workflows", reclaimed.size(),
+                abandoned);
+        reclaimed.forEach(workflowService::redispatchTask);
+        return expired.size();
+    }
+
+}
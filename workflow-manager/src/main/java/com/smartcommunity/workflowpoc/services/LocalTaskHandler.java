@@ -0,0 +1,23 @@
+package com.smartcommunity.workflowpoc.services;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+
+/**
+ * Runs the tasks of the single node mode, within the manager.
+ *
+ * The implementation is selected with the messaging.local.handler property:
+ * "simulated", the default, stands in for the work as the workers do. Any
+ * other value leaves room for an application provided bean.
+ */
+public interface LocalTaskHandler {
+
+    /**
+     * Runs a task, on a virtual thread of its own.
+     * @param task A copy of the task, with its input. Its output, inline up to
+     *            {@link Task#MAX_INLINE_PAYLOAD} bytes or else stored in the
+     *            blob store and referenced by outputRef, is the result.
+     * @throws Exception If the task failed.
+     */
+    void handle(Task task) throws Exception;
+
+}
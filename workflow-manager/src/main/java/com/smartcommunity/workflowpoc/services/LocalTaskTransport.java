@@ -0,0 +1,282 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+import com.smartcommunity.workflowpoc.domain.TaskStatus;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Task transport running the tasks within the manager, for single node
+ * deployments without a broker.
+ *
+ * Tasks are handed over as plain objects through a bounded queue, with no
+ * serialization, and run by the {@link LocalTaskHandler} on virtual threads,
+ * at most the configured number at a time. Tasks are not leased: they stay
+ * PENDING in the store while running, and their final status and output are
+ * written in batches with a compare-and-set before the completions are
+ * applied, grouped by workflow. A task interrupted by a crash is thus still
+ * PENDING, and runs again on restart. Priorities are not used: the dispatch
+ * scheduler already orders the tasks.
+ */
+@Service
+@ConditionalOnProperty(name = "messaging.transport", havingValue = "local")
+public class LocalTaskTransport implements TaskTransport {
+
+	private static final Logger logger = LoggerFactory.getLogger(LocalTaskTransport.class);
+
+	// two versions, as the worker moves a task to IN_PROGRESS and then on
+	private static final String FINISH_SQL = "UPDATE task SET status_code = ?, version = version + 2, updated_at = ?, "
+			+ "output = ?, output_ref = ? WHERE id = ? AND version = ? AND status_code = ?";
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Autowired
+	private LocalTaskHandler handler;
+
+	@Value("${messaging.local.capacity:65536}")
+	private int capacity;
+
+	@Value("${messaging.local.concurrency:256}")
+	private int concurrency;
+
+	@Value("${messaging.local.timeout:5000}")
+	private long timeout;
+
+	@Value("${messaging.completion.batch-size:250}")
+	private int completionBatchSize;
+
+	private TaskCompleteProcessor taskCompleteProcessor;
+
+	private BlockingQueue<Task> tasks;
+
+	private BlockingQueue<Result> results;
+
+	private Semaphore slots;
+
+	private ExecutorService executor;
+
+	private Thread dispatcher;
+
+	private Thread completer;
+
+	private volatile boolean accepting = true;
+
+	private volatile boolean running = true;
+
+	@Override
+	public void init(TaskCompleteProcessor taskCompleteProcessor) throws Exception {
+		this.taskCompleteProcessor = taskCompleteProcessor;
+
+		tasks = new ArrayBlockingQueue<>(capacity);
+		results = new ArrayBlockingQueue<>(capacity);
+		slots = new Semaphore(concurrency);
+		executor = Executors.newVirtualThreadPerTaskExecutor();
+
+		Gauge.builder("wfm.local.queued", tasks, BlockingQueue::size)
+			.description("Tasks waiting to run in process")
+			.register(meterRegistry);
+		Gauge.builder("wfm.local.running", slots, s -> concurrency - s.availablePermits())
+			.description("Tasks running in process")
+			.register(meterRegistry);
+
+		dispatcher = new Thread(this::dispatch, "local-task-dispatcher");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+		completer = new Thread(this::complete, "local-task-completions");
+		completer.setDaemon(true);
+		completer.start();
+		logger.info(" [*] Running tasks in process, up to {} at a time", concurrency);
+	}
+
+	/**
+	 * Queues a task to run in process, blocking up to the timeout while the
+	 * queue is full.
+	 */
+	@Override
+	public CompletableFuture<Void> sendTask(Task task, int priority) throws Exception {
+		// the handler gets its own copy, the engine owns the task
+		Task copy = new Task();
+		copy.setId(task.getId());
+		copy.setVersion(task.getVersion() != null ? task.getVersion() : 0);
+		copy.setType(task.getType());
+		copy.setWorkflowId(task.getWorkflowId());
+		copy.setInput(task.getInput());
+		copy.setInputRef(task.getInputRef());
+		if (!tasks.offer(copy, timeout, TimeUnit.MILLISECONDS)) {
+			return CompletableFuture.failedFuture(new IllegalStateException("Local task queue full"));
+		}
+		return CompletableFuture.completedFuture(null);
+	}
+
+	private void dispatch() {
+		while (accepting) {
+			try {
+				Task task = tasks.poll(100, TimeUnit.MILLISECONDS);
+				if (task == null) {
+					continue;
+				}
+				slots.acquire();
+				executor.execute(() -> {
+					try {
+						run(task);
+					}
+					finally {
+						slots.release();
+					}
+				});
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private void run(Task task) {
+		boolean success;
+		try {
+			handler.handle(task);
+			success = true;
+		}
+		catch (InterruptedException e) {
+			// shutting down, the task is still PENDING and runs on restart
+			Thread.currentThread().interrupt();
+			return;
+		}
+		catch (Exception e) {
+			logger.error("Error processing task " + task.getId(), e);
+			success = false;
+		}
+
+		try {
+			results.put(new Result(task, success));
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stores the results and applies the completions in batches, one call per
+	 * workflow in the batch.
+	 */
+	private void complete() {
+		List<Result> batch = new ArrayList<>(completionBatchSize);
+		while (running || !results.isEmpty()) {
+			try {
+				Result first = results.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				results.drainTo(batch, completionBatchSize - 1);
+
+				int[] counts = store(batch);
+				if (counts == null) {
+					return;
+				}
+				Map<String, List<TaskCompletion>> groups = new LinkedHashMap<>();
+				for (int i = 0; i < batch.size(); i++) {
+					Task task = batch.get(i).task();
+					if (i < counts.length && counts[i] == 0) {
+						// duplicate dispatch, another run stored its result first
+						logger.info("Task {} of workflow {} already finished, dropping result", task.getId(),
+								task.getWorkflowId());
+						continue;
+					}
+					groups.computeIfAbsent(task.getWorkflowId(), k -> new ArrayList<>())
+						.add(new TaskCompletion(task.getId(), task.getWorkflowId(), batch.get(i).success()));
+				}
+				groups.forEach((workflowId, group) -> {
+					try {
+						taskCompleteProcessor.processTaskCompletions(workflowId, group);
+					}
+					catch (Exception e) {
+						logger.error("Error applying {} completions of workflow {}", group.size(), workflowId, e);
+					}
+				});
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			finally {
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Writes the final status and output of the tasks, retrying while the
+	 * store is unavailable.
+	 * @return The update counts, or null if shutting down first.
+	 */
+	private int[] store(List<Result> batch) throws InterruptedException {
+		while (true) {
+			long now = System.currentTimeMillis();
+			try {
+				return jdbcTemplate.batchUpdate(FINISH_SQL, batch.stream()
+					.map(r -> new Object[] {
+							(r.success() ? TaskStatus.COMPLETED : TaskStatus.FAILED).code(), now,
+							r.task().getOutput(), r.task().getOutputRef(), r.task().getId(),
+							r.task().getVersion(), TaskStatus.PENDING.code() })
+					.toList());
+			}
+			catch (Exception e) {
+				logger.error("Error storing {} task results, retrying", batch.size(), e);
+				if (!running) {
+					// still PENDING, they run again on restart
+					return null;
+				}
+				Thread.sleep(1000);
+			}
+		}
+	}
+
+	@PreDestroy
+	public void close() throws Exception {
+		accepting = false;
+		if (dispatcher != null) {
+			dispatcher.join(10000);
+		}
+		if (executor != null) {
+			// queued tasks stay PENDING and are dispatched again on restart
+			executor.shutdownNow();
+			executor.awaitTermination(30, TimeUnit.SECONDS);
+		}
+		running = false;
+		if (completer != null) {
+			completer.join(10000);
+		}
+	}
+
+	private record Result(Task task, boolean success) {
+	}
+
+}
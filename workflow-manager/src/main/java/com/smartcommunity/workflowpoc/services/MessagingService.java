@@ -1,29 +1,40 @@
 package com.smartcommunity.workflowpoc.services;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
-import com.rabbitmq.client.DeliverCallback;
-import com.rabbitmq.client.MessageProperties;
 import com.smartcommunity.workflowpoc.domain.Task;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import tools.jackson.databind.ObjectMapper;
 
 /**
- * Service for sending messages to a RabbitMQ queue.
+ * Task transport through RabbitMQ, the default one.
  */
 @Service
-public class MessagingService {
+@ConditionalOnProperty(name = "messaging.transport", havingValue = "amqp", matchIfMissing = true)
+public class MessagingService implements TaskTransport {
 
     private static final Logger logger = LoggerFactory.getLogger(MessagingService.class);
 
     private static final String TASK_QUEUE_NAME = "task_queue";
     private static final String TASK_COMPLETE_QUEUE_NAME = "task_completion_queue";
+    private static final String TASK_EXCHANGE_NAME = "task_exchange";
+    private static final String UNROUTED_EXCHANGE_NAME = "task_exchange.unrouted";
+    private static final String DISPATCHED_AT_HEADER = "x-dispatched-at";
 
     @Value("${spring.rabbitmq.host}")
     private String host;
@@ -34,11 +45,43 @@ public class MessagingService {
     @Value("${spring.rabbitmq.password}")
     private String password;
 
+    @Value("${messaging.publisher.channels:8}")
+    private int publisherChannels;
+    @Value("${messaging.publisher.max-outstanding-confirms:10000}")
+    private int maxOutstandingConfirms;
+    @Value("${messaging.publisher.timeout:5000}")
+    private long publisherTimeout;
+    @Value("${messaging.completion.prefetch:1000}")
+    private int completionPrefetch;
+    @Value("${messaging.completion.batch-size:250}")
+    private int completionBatchSize;
+    @Value("${messaging.completion.threads:8}")
+    private int completionThreads;
+    @Value("${messaging.codec:binary}")
+    private String codecName;
+    @Value("${messaging.max-priority:9}")
+    private int maxPriority;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    private TaskCodec codec;
+
+    private AMQP.BasicProperties[] taskProps;
+
     private ConnectionFactory factory;
 
+    private Connection publishConnection;
+
+    private PublisherChannelPool publisherPool;
+
+    private Connection receiveConnection;
 
+    private CompletionConsumer completionConsumer;
+
+    @Override
     public void init(TaskCompleteProcessor taskCompleteProcessor) throws Exception {
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost(host);
@@ -47,45 +90,77 @@ public class MessagingService {
         factory.setPassword(password);
         this.factory = factory;
 
-        // Start a consumer to listen for task completion messages
-        Connection receiveConnection = factory.newConnection();
-        Channel receiveChannel = receiveConnection.createChannel();
-        receiveChannel.queueDeclare(TASK_COMPLETE_QUEUE_NAME, true, false, false, null);
+        // Outgoing format is configured, incoming one follows the content type
+        codec = new TaskCodec(objectMapper, !"json".equals(codecName));
+        taskProps = new AMQP.BasicProperties[Math.max(maxPriority, 0) + 1];
+        for (int i = 0; i < taskProps.length; i++) {
+            taskProps[i] = new AMQP.BasicProperties.Builder()
+                    .contentType(codec.contentType())
+                    .deliveryMode(2)
+                    .priority(i)
+                    .build();
+        }
+
+        // Shared connection and confirm-enabled channels for dispatching tasks
+        publishConnection = factory.newConnection("workflow-manager-publisher");
+        try (Channel channel = publishConnection.createChannel()) {
+            // Declare a durable queue
+            channel.queueDeclare(TASK_QUEUE_NAME, true, false, false, null);
+            // Tasks are routed by type to the queues workers bind, the
+            // types nobody subscribed to end up in the shared queue
+            channel.exchangeDeclare(UNROUTED_EXCHANGE_NAME, BuiltinExchangeType.FANOUT, true);
+            channel.queueBind(TASK_QUEUE_NAME, UNROUTED_EXCHANGE_NAME, "");
+            channel.exchangeDeclare(TASK_EXCHANGE_NAME, BuiltinExchangeType.DIRECT, true, false,
+                    Map.of("alternate-exchange", UNROUTED_EXCHANGE_NAME));
+        }
+        publisherPool = new PublisherChannelPool(publishConnection, publisherChannels, maxOutstandingConfirms,
+                publisherTimeout, meterRegistry);
+
+        // Start a consumer to apply task completion messages in batches
+        receiveConnection = factory.newConnection("workflow-manager-completions");
+        completionConsumer = new CompletionConsumer(receiveConnection, TASK_COMPLETE_QUEUE_NAME, codec,
+                taskCompleteProcessor, completionPrefetch, completionBatchSize, completionThreads, meterRegistry);
         logger.info(" [*] Waiting for messages. ");
-        DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-            String message = new String(delivery.getBody(), "UTF-8");
-            logger.info(" [x] Received '" + message + "'");
-            //process task completion
-            try {
-                Task task = objectMapper.readValue(message, Task.class);
-                boolean success = "COMPLETED".equals(task.getStatus());
-                taskCompleteProcessor.processTaskCompletion(task.getId(), success);
-            } finally {
-                logger.info(" [x] Done");
-                receiveChannel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
-            }
-        };
-        receiveChannel.basicConsume(TASK_COMPLETE_QUEUE_NAME, false, deliverCallback, consumerTag -> { });
 
     }
 
     /**
-     * Sends a message to the RabbitMQ queue.
+     * Sends a message to the RabbitMQ queue of the task type.
      *
-     * @param message The message to send.
-     * @throws Exception If an error occurs while sending the message.
+     * @param task The task to send.
+     * @param priority The priority of the message, honored by the queues
+     *            declared with a maximum priority.
+     * @return a future completed when the broker has confirmed the message.
+     * @throws Exception If the message could not be published.
      */
-    public void sendTask(Task task) throws Exception {
-        try (Connection connection = factory.newConnection();
-            Channel channel = connection.createChannel()) {
-            // Declare a durable queue
-            channel.queueDeclare(TASK_QUEUE_NAME, true, false, false, null);
-
-            String message = objectMapper.writeValueAsString(task);
+    @Override
+    public CompletableFuture<Void> sendTask(Task task, int priority) throws Exception {
+        byte[] message = codec.encode(task);
+        String routingKey = task.getType() != null ? task.getType() : "";
+        // dispatch time lets workers measure the queue wait
+        AMQP.BasicProperties props = taskProps[Math.min(Math.max(priority, 0), taskProps.length - 1)].builder()
+                .headers(Map.of(DISPATCHED_AT_HEADER, System.currentTimeMillis()))
+                .build();
+
+        // Publish a message to the exchange
+        CompletableFuture<Void> confirm = publisherPool.publish(TASK_EXCHANGE_NAME, routingKey, props, message);
+        logger.debug(" [x] Sent task {} ({} bytes)", task.getId(), message.length);
+        return confirm;
+    }
 
-            // Publish a message to the queue
-            channel.basicPublish("", TASK_QUEUE_NAME, MessageProperties.PERSISTENT_TEXT_PLAIN, message.getBytes("UTF-8"));
-            logger.info(" [x] Sent '" + message + "'");
+    @PreDestroy
+    public void close() throws Exception {
+        if (completionConsumer != null) {
+            completionConsumer.close();
+        }
+        if (receiveConnection != null && receiveConnection.isOpen()) {
+            receiveConnection.close();
+        }
+        if (publisherPool != null) {
+            publisherPool.close();
         }
-    }    
+        if (publishConnection != null && publishConnection.isOpen()) {
+            publishConnection.close();
+        }
+    }
 }
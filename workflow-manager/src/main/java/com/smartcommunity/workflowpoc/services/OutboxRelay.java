@@ -0,0 +1,149 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.smartcommunity.workflowpoc.domain.OutboxEntry;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Relays the task outbox to the broker.
+ *
+ * A dedicated thread claims the available entries in batches and hands their
+ * tasks over to the engine for dispatch, as soon as signaled and at least
+ * once per interval. Entries are deleted once the broker confirmed their
+ * task, in batches as well, while the ones whose dispatch failed are made
+ * available again after a delay.
+ */
+@Service
+public class OutboxRelay {
+
+	private static final Logger logger = LoggerFactory.getLogger(OutboxRelay.class);
+
+	@Autowired
+	private TaskOutbox taskOutbox;
+
+	@Autowired
+	private WorkflowService workflowService;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${outbox.batch-size:1000}")
+	private int batchSize;
+
+	@Value("${outbox.interval:1000}")
+	private long interval;
+
+	@Value("${outbox.claim-timeout:60000}")
+	private long claimTimeout;
+
+	@Value("${outbox.retry-delay:5000}")
+	private long retryDelay;
+
+	private final Queue<Long> dispatched = new ConcurrentLinkedQueue<>();
+
+	private final Queue<Long> failed = new ConcurrentLinkedQueue<>();
+
+	private Counter relayed;
+
+	private Thread relay;
+
+	private volatile boolean running = true;
+
+	@PostConstruct
+	public void init() {
+		relayed = Counter.builder("wfm.outbox.relayed")
+			.description("Outbox entries handed over for dispatch")
+			.register(meterRegistry);
+
+		relay = new Thread(this::run, "outbox-relay");
+		relay.setDaemon(true);
+		relay.start();
+	}
+
+	private void run() {
+		while (running) {
+			try {
+				taskOutbox.await(interval);
+				relayAll();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			catch (Exception e) {
+				logger.error("Error relaying the task outbox", e);
+			}
+		}
+	}
+
+	private void relayAll() {
+		List<OutboxEntry> batch;
+		do {
+			settle();
+			batch = taskOutbox.claim(batchSize, claimTimeout);
+			for (OutboxEntry entry : batch) {
+				CompletableFuture<Void> dispatch;
+				try {
+					dispatch = workflowService.dispatchTask(entry.getTaskId());
+				}
+				catch (Exception e) {
+					dispatch = CompletableFuture.failedFuture(e);
+				}
+				dispatch.whenComplete((r, e) -> (e == null ? dispatched : failed).add(entry.getId()));
+			}
+			relayed.increment(batch.size());
+		} while (running && batch.size() == batchSize);
+		settle();
+	}
+
+	/**
+	 * Deletes the entries of the dispatched tasks and defers the failed ones.
+	 */
+	private void settle() {
+		List<Long> done = drain(dispatched);
+		if (!done.isEmpty()) {
+			taskOutbox.delete(done);
+		}
+		List<Long> retry = drain(failed);
+		if (!retry.isEmpty()) {
+			logger.warn("Dispatch of {} outbox tasks failed, retrying in {} ms", retry.size(), retryDelay);
+			taskOutbox.defer(retry, System.currentTimeMillis() + retryDelay);
+		}
+	}
+
+	private static List<Long> drain(Queue<Long> queue) {
+		List<Long> ids = new ArrayList<>();
+		Long id;
+		while ((id = queue.poll()) != null) {
+			ids.add(id);
+		}
+		return ids;
+	}
+
+	@PreDestroy
+	public void close() throws Exception {
+		running = false;
+		taskOutbox.signal();
+		if (relay != null) {
+			relay.join(10000);
+		}
+		// entries left are claimed again on restart
+		settle();
+	}
+
+}
@@ -0,0 +1,147 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Service for the input and output payloads of tasks.
+ *
+ * Payloads up to the inline limit travel with their task, in the messages
+ * and in the task row. Larger ones are written once to the blob store, and
+ * the task only carries their id: inputs larger than the limit are moved
+ * there when a workflow is started, or can be uploaded beforehand and
+ * referenced by the tasks. Payloads are served as streams.
+ */
+@Service
+public class PayloadService {
+
+	private static final Logger logger = LoggerFactory.getLogger(PayloadService.class);
+
+	@Autowired
+	private BlobStore blobStore;
+
+	@Value("${payload.inline-max:1024}")
+	private int inlineMax;
+
+	@PostConstruct
+	public void init() {
+		if (inlineMax > Task.MAX_INLINE_PAYLOAD) {
+			logger.warn("Inline payload limit {} above the {} bytes the task table holds, lowered", inlineMax,
+					Task.MAX_INLINE_PAYLOAD);
+			inlineMax = Task.MAX_INLINE_PAYLOAD;
+		}
+	}
+
+	/**
+	 * Checks the input of a new task, moving it to the blob store if larger
+	 * than the inline limit.
+	 * @param task The task.
+	 * @return The id of the payload stored, or null if the input was left as
+	 *         it was.
+	 * @throws IllegalArgumentException If the task has both an inline and a
+	 *         stored input, or references an unknown one.
+	 */
+	public String offload(Task task) {
+		if (task.getInputRef() != null) {
+			if (task.getInput() != null) {
+				throw new IllegalArgumentException("Task with both input and inputRef");
+			}
+			try {
+				blobStore.size(task.getInputRef());
+			}
+			catch (IOException | IllegalArgumentException e) {
+				throw new IllegalArgumentException("Unknown input payload " + task.getInputRef());
+			}
+			return null;
+		}
+
+		String input = task.getInput();
+		// at most 3 bytes per UTF-16 char
+		if (input == null || input.length() * 3 <= inlineMax) {
+			return null;
+		}
+		byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length <= inlineMax) {
+			return null;
+		}
+		try {
+			task.setInputRef(blobStore.put(Channels.newChannel(new ByteArrayInputStream(bytes))));
+			task.setInput(null);
+			return task.getInputRef();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Error storing the input of task " + task.getId(), e);
+		}
+	}
+
+	/**
+	 * Deletes payloads moved to the blob store for tasks that were never
+	 * stored, logging the ones that could not be deleted.
+	 * @param ids The ids of the payloads.
+	 */
+	public void discard(List<String> ids) {
+		for (String id : ids) {
+			try {
+				blobStore.delete(id);
+			}
+			catch (IOException | IllegalArgumentException e) {
+				logger.warn("Error deleting unreferenced payload {}", id, e);
+			}
+		}
+	}
+
+	/**
+	 * Stores a payload streamed by a client, to be referenced by tasks.
+	 * @param in The payload content.
+	 * @return The id of the stored payload.
+	 */
+	public String store(InputStream in) throws IOException {
+		return blobStore.put(Channels.newChannel(in));
+	}
+
+	/**
+	 * Returns the size of a stored payload, or -1 if unknown.
+	 * @param id The id of the payload.
+	 */
+	public long size(String id) {
+		try {
+			return blobStore.size(id);
+		}
+		catch (IOException | IllegalArgumentException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Streams a payload, either inline or stored.
+	 * @param inline The inline payload, or null.
+	 * @param ref The id of the stored payload, or null.
+	 * @param out Where to write the payload.
+	 */
+	public void writeTo(String inline, String ref, OutputStream out) throws IOException {
+		if (ref != null) {
+			blobStore.transferTo(ref, Channels.newChannel(out));
+		}
+		else if (inline != null) {
+			out.write(inline.getBytes(StandardCharsets.UTF_8));
+		}
+		out.flush();
+	}
+
+}
@@ -0,0 +1,208 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Pool of long-lived publisher channels sharing a single connection.
+ *
+ * Every channel runs in confirm mode: publishes are pipelined and the broker
+ * acknowledges them asynchronously, possibly acking many sequence numbers at
+ * once. The number of unconfirmed messages across the pool is bounded, so a
+ * burst of dispatches applies backpressure instead of buffering without limit.
+ *
+ * Confirms arrive on the connection thread, which must never block: the
+ * returned futures are completed on a dedicated thread, so that callbacks
+ * publishing again and waiting for a confirm slot can not stall the very
+ * thread that frees the slots.
+ */
+public class PublisherChannelPool implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PublisherChannelPool.class);
+
+    private final Connection connection;
+    private final BlockingQueue<PooledChannel> idle;
+    private final List<PooledChannel> all = new CopyOnWriteArrayList<>();
+    private final Semaphore outstanding;
+    private final long timeoutMillis;
+    private final ExecutorService completer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "publisher-confirms");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Counter published;
+    private final Counter nacked;
+    private final Timer confirmLatency;
+
+    public PublisherChannelPool(Connection connection, int size, int maxOutstandingConfirms, long timeoutMillis,
+            MeterRegistry registry) throws IOException {
+        this.connection = connection;
+        this.idle = new ArrayBlockingQueue<>(size);
+        this.outstanding = new Semaphore(maxOutstandingConfirms);
+        this.timeoutMillis = timeoutMillis;
+
+        this.published = Counter.builder("wfm.dispatch.published")
+            .description("Messages published to the broker")
+            .register(registry);
+        this.nacked = Counter.builder("wfm.dispatch.nacked")
+            .description("Messages rejected by the broker")
+            .register(registry);
+        this.confirmLatency = Timer.builder("wfm.dispatch.confirm")
+            .description("Time from publish to broker confirm")
+            .publishPercentileHistogram()
+            .register(registry);
+
+        for (int i = 0; i < size; i++) {
+            PooledChannel pc = new PooledChannel(connection.createChannel());
+            all.add(pc);
+            idle.add(pc);
+        }
+    }
+
+    /**
+     * Publishes a message on a pooled channel.
+     *
+     * @return a future completed when the broker confirms the message, or
+     *         completed exceptionally on nack or channel shutdown.
+     * @throws Exception If no channel or confirm slot is available in time.
+     */
+    public CompletableFuture<Void> publish(String exchange, String routingKey, AMQP.BasicProperties props,
+            byte[] body) throws Exception {
+        if (!outstanding.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new IOException("Too many unconfirmed messages");
+        }
+
+        PooledChannel pc = idle.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (pc == null) {
+            outstanding.release();
+            throw new IOException("No publisher channel available");
+        }
+
+        long seqNo = -1;
+        boolean sent = false;
+        try {
+            if (!pc.channel.isOpen()) {
+                all.remove(pc);
+                pc = new PooledChannel(connection.createChannel());
+                all.add(pc);
+            }
+
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            seqNo = pc.channel.getNextPublishSeqNo();
+            pc.pending.put(seqNo, new Pending(future, System.nanoTime()));
+            pc.channel.basicPublish(exchange, routingKey, props, body);
+            sent = true;
+            published.increment();
+
+            return future;
+        } finally {
+            // a failed publish gives back its slot, unless a shutdown already did
+            if (!sent && (seqNo < 0 || pc.pending.remove(seqNo) != null)) {
+                outstanding.release();
+            }
+            idle.offer(pc);
+        }
+    }
+
+    /**
+     * Returns the number of published messages still waiting for a confirm.
+     */
+    public int getOutstandingConfirms() {
+        int count = 0;
+        for (PooledChannel pc : all) {
+            count += pc.pending.size();
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (PooledChannel pc : all) {
+            try {
+                pc.channel.waitForConfirms(timeoutMillis);
+                pc.channel.close();
+            } catch (Exception e) {
+                logger.warn("Error closing publisher channel", e);
+            }
+        }
+        completer.shutdown();
+        completer.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private record Pending(CompletableFuture<Void> future, long publishedAt) {
+    }
+
+    private class PooledChannel {
+
+        private final Channel channel;
+
+        private final ConcurrentNavigableMap<Long, Pending> pending = new ConcurrentSkipListMap<>();
+
+        PooledChannel(Channel channel) throws IOException {
+            this.channel = channel;
+            channel.confirmSelect();
+            channel.addConfirmListener((tag, multiple) -> confirm(tag, multiple, true),
+                    (tag, multiple) -> confirm(tag, multiple, false));
+            channel.addShutdownListener(cause -> {
+                // fail everything still waiting on this channel
+                confirm(Long.MAX_VALUE, true, false);
+            });
+        }
+
+        private void confirm(long tag, boolean multiple, boolean ack) {
+            if (multiple) {
+                Map.Entry<Long, Pending> entry;
+                while ((entry = pending.firstEntry()) != null && entry.getKey() <= tag) {
+                    if (pending.remove(entry.getKey()) != null) {
+                        complete(entry.getValue(), ack);
+                    }
+                }
+            } else {
+                Pending p = pending.remove(tag);
+                if (p != null) {
+                    complete(p, ack);
+                }
+            }
+        }
+
+        private void complete(Pending p, boolean ack) {
+            outstanding.release();
+            confirmLatency.record(System.nanoTime() - p.publishedAt, TimeUnit.NANOSECONDS);
+            if (!ack) {
+                nacked.increment();
+            }
+            Runnable completion = ack ? () -> p.future.complete(null)
+                    : () -> p.future.completeExceptionally(new IOException("Message not confirmed by broker"));
+            try {
+                completer.execute(completion);
+            } catch (RejectedExecutionException e) {
+                // closing, nobody publishes anymore
+                completion.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Service;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+
+/**
+ * Task handler of the single node mode simulating the work like the workers
+ * do: it waits a random time, then returns the input as the output.
+ */
+@Service
+@ConditionalOnExpression("'${messaging.transport:amqp}' == 'local' and '${messaging.local.handler:simulated}' == 'simulated'")
+public class SimulatedTaskHandler implements LocalTaskHandler {
+
+	@Autowired
+	private BlobStore blobStore;
+
+	@Value("${messaging.local.max-work-time:20000}")
+	private long maxWorkTime;
+
+	@Override
+	public void handle(Task task) throws Exception {
+		if (maxWorkTime > 0) {
+			// Simulate time-consuming task
+			Thread.sleep(ThreadLocalRandom.current().nextLong(maxWorkTime) + 1);
+		}
+
+		// Simulate a result, the input back as the output
+		task.setOutput(task.getInput());
+		if (task.getInputRef() != null) {
+			try (ReadableByteChannel in = blobStore.open(task.getInputRef())) {
+				task.setOutputRef(blobStore.put(in));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,61 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Fixed set of locks selected by key hash.
+ *
+ * State transitions of the same workflow are serialized on its stripe, while
+ * workflows hashing to different stripes proceed in parallel without any
+ * global lock.
+ */
+public class StripedLock {
+
+	private final ReentrantLock[] stripes;
+
+	private final int mask;
+
+	/**
+	 * @param concurrency The minimum number of stripes, rounded up to a power of two.
+	 */
+	public StripedLock(int concurrency) {
+		int size = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+		this.stripes = new ReentrantLock[size];
+		this.mask = size - 1;
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Returns the stripe index for a key.
+	 */
+	public int stripe(String key) {
+		int h = key.hashCode();
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	public void run(String key, Runnable action) {
+		ReentrantLock lock = stripes[stripe(key)];
+		lock.lock();
+		try {
+			action.run();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	public <T> T call(String key, Supplier<T> action) {
+		ReentrantLock lock = stripes[stripe(key)];
+		lock.lock();
+		try {
+			return action.get();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+}
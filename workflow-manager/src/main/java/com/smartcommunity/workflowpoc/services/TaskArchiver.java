@@ -0,0 +1,136 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.smartcommunity.workflowpoc.domain.WorkflowStatus;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Service for moving the tasks of finished workflows to the archive.
+ *
+ * The task table only holds the tasks the engine may still change, so that
+ * its indexes stay small. Workflows finished for longer than the configured
+ * time are found with a range scan on the workflow status index, resuming
+ * from the last one archived, and their tasks are moved in batches. Reads
+ * fall back to the archive once the tasks are gone.
+ *
+ * On startup, the scans resume after the latest finished workflow with
+ * archived tasks, rather than from the start of the workflow table.
+ */
+@Service
+public class TaskArchiver {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskArchiver.class);
+
+    private static final String SELECT_SQL = "SELECT id, updated_at FROM workflow "
+            + "WHERE status = ? AND updated_at < ? AND (updated_at > ? OR (updated_at = ? AND id > ?)) "
+            + "ORDER BY updated_at, id LIMIT ?";
+
+    // batches are archived in order, each in a transaction
+    private static final String RESUME_SQL = "SELECT w.id, w.updated_at FROM workflow w "
+            + "WHERE w.status = ? AND w.updated_at < ? "
+            + "AND EXISTS (SELECT 1 FROM task_archive a WHERE a.workflow_id = w.id) "
+            + "ORDER BY w.updated_at DESC, w.id DESC LIMIT 1";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TaskStoreService taskStoreService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${archive.after:86400000}")
+    private long after;
+
+    @Value("${archive.batch-size:100}")
+    private int batchSize;
+
+    private final Watermark[] watermarks = {
+            new Watermark(WorkflowStatus.COMPLETED),
+            new Watermark(WorkflowStatus.FAILED)
+    };
+
+    private Counter archived;
+
+    @PostConstruct
+    public void init() {
+        archived = Counter.builder("wfm.archive.tasks")
+            .description("Tasks of finished workflows moved to the archive")
+            .register(meterRegistry);
+
+        long cutoff = System.currentTimeMillis() - after;
+        for (Watermark watermark : watermarks) {
+            try {
+                jdbcTemplate.query(RESUME_SQL, rs -> {
+                    watermark.id = rs.getString("id");
+                    watermark.updatedAt = rs.getLong("updated_at");
+                }, watermark.status.name(), cutoff);
+            } catch (Exception e) {
+                logger.error("Error finding the last archived {} workflow, scanning from the start",
+                        watermark.status, e);
+            }
+        }
+    }
+
+    @Scheduled(initialDelayString = "${archive.interval:60000}", fixedDelayString = "${archive.interval:60000}")
+    public void archive() {
+        long cutoff = System.currentTimeMillis() - after;
+        for (Watermark watermark : watermarks) {
+            try {
+                int count;
+                do {
+                    count = archiveBatch(watermark, cutoff);
+                } while (count == batchSize);
+            } catch (Exception e) {
+                logger.error("Error archiving tasks of {} workflows", watermark.status, e);
+            }
+        }
+    }
+
+    private int archiveBatch(Watermark watermark, long cutoff) {
+        List<Object[]> workflows = jdbcTemplate.query(SELECT_SQL,
+                (rs, i) -> new Object[] { rs.getString("id"), rs.getLong("updated_at") },
+                watermark.status.name(), cutoff, watermark.updatedAt, watermark.updatedAt, watermark.id, batchSize);
+        if (workflows.isEmpty()) {
+            return 0;
+        }
+
+        List<String> ids = workflows.stream().map(w -> (String) w[0]).toList();
+        int moved = taskStoreService.archiveTasks(ids);
+        archived.increment(moved);
+        logger.info("Archived {} tasks of {} {} workflows", moved, ids.size(), watermark.status);
+
+        // finished workflows do not change anymore, resume after the last one
+        Object[] last = workflows.get(workflows.size() - 1);
+        watermark.id = (String) last[0];
+        watermark.updatedAt = (Long) last[1];
+        return workflows.size();
+    }
+
+    private static class Watermark {
+
+        private final WorkflowStatus status;
+
+        private long updatedAt = -1;
+
+        private String id = "";
+
+        Watermark(WorkflowStatus status) {
+            this.status = status;
+        }
+    }
+
+}
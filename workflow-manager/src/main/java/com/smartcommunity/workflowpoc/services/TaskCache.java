@@ -0,0 +1,193 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+import com.smartcommunity.workflowpoc.domain.TaskStatus;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Bounded in-memory cache of task state, for status reads.
+ *
+ * The engine puts the states it applies itself, completions and reclaims,
+ * and drops a task when it hands it over to the workers, since the start of
+ * a task is only written to the store. States read from the store fill the
+ * cache as well. Completed and failed tasks do not change anymore and stay
+ * until evicted by size, least recently used first; the other states expire
+ * after a short time. Entries are copies, never the tasks owned by the
+ * engine.
+ */
+@Service
+public class TaskCache {
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${cache.tasks.max-size:100000}")
+	private int maxSize;
+
+	@Value("${cache.tasks.ttl:5000}")
+	private long ttl;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true) {
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			if (size() > maxSize) {
+				sizeEvictions.increment();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	private Counter hits;
+
+	private Counter misses;
+
+	private Counter sizeEvictions;
+
+	private Counter expirations;
+
+	@PostConstruct
+	public void init() {
+		hits = Counter.builder("wfm.cache.gets").tag("cache", "tasks").tag("result", "hit")
+			.description("Task status reads served from memory")
+			.register(meterRegistry);
+		misses = Counter.builder("wfm.cache.gets").tag("cache", "tasks").tag("result", "miss")
+			.description("Task status reads served from the store")
+			.register(meterRegistry);
+		sizeEvictions = Counter.builder("wfm.cache.evictions").tag("cache", "tasks").tag("cause", "size")
+			.description("Cached task states dropped to stay within the size bound")
+			.register(meterRegistry);
+		expirations = Counter.builder("wfm.cache.evictions").tag("cache", "tasks").tag("cause", "expired")
+			.description("Cached task states dropped once expired")
+			.register(meterRegistry);
+		Gauge.builder("wfm.cache.size", this, TaskCache::size)
+			.tag("cache", "tasks")
+			.description("Task states held in memory")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * Returns the state of a task, from memory if cached and fresh or else
+	 * from the loader, caching the result.
+	 * @param id The ID of the task.
+	 * @param loader Reads the task from the store.
+	 * @return The task, or null if unknown.
+	 */
+	public Task get(String id, Function<String, Task> loader) {
+		long now = System.currentTimeMillis();
+		lock.lock();
+		try {
+			Entry entry = entries.get(id);
+			if (entry != null) {
+				if (entry.expiresAt() >= now) {
+					hits.increment();
+					return entry.task();
+				}
+				entries.remove(id);
+				expirations.increment();
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+
+		// load outside the lock, a concurrent update wins over the loaded state
+		misses.increment();
+		Task loaded = loader.apply(id);
+		if (loaded == null) {
+			return null;
+		}
+		Entry entry = entry(loaded, now);
+		lock.lock();
+		try {
+			Entry current = entries.putIfAbsent(id, entry);
+			return current != null ? current.task() : entry.task();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stores the state of a task as applied by the engine.
+	 * @param task The task, copied.
+	 */
+	public void put(Task task) {
+		Entry entry = entry(task, System.currentTimeMillis());
+		lock.lock();
+		try {
+			entries.put(task.getId(), entry);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Drops the state of a task, that is about to change in the store only.
+	 * @param id The ID of the task.
+	 */
+	public void invalidate(String id) {
+		lock.lock();
+		try {
+			entries.remove(id);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	public int size() {
+		lock.lock();
+		try {
+			return entries.size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	private Entry entry(Task task, long now) {
+		boolean done = TaskStatus.COMPLETED.name().equals(task.getStatus())
+				|| TaskStatus.FAILED.name().equals(task.getStatus());
+		return new Entry(copy(task), done ? Long.MAX_VALUE : now + ttl);
+	}
+
+	private static Task copy(Task task) {
+		Task copy = new Task();
+		copy.setId(task.getId());
+		copy.setVersion(task.getVersion());
+		copy.setType(task.getType());
+		copy.setCreatedAt(task.getCreatedAt());
+		copy.setUpdatedAt(task.getUpdatedAt());
+		copy.setStatus(task.getStatus());
+		copy.setWorkflowId(task.getWorkflowId());
+		copy.setLeaseOwner(task.getLeaseOwner());
+		copy.setLeaseExpiresAt(task.getLeaseExpiresAt());
+		copy.setPosition(task.getPosition());
+		copy.setRef(task.getRef());
+		copy.setDependsOn(task.getDependsOn() != null ? new ArrayList<>(task.getDependsOn()) : null);
+		return copy;
+	}
+
+	private record Entry(Task task, long expiresAt) {
+	}
+
+}
@@ -0,0 +1,253 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+import com.smartcommunity.workflowpoc.domain.TaskStatus;
+
+import tools.jackson.databind.ObjectMapper;
+
+/**
+ * Wire format of task and completion messages.
+ *
+ * Messages are written either as JSON or in a compact binary layout, and the
+ * AMQP content type tells which one a message uses, so that consumers accept
+ * both while producers are switched over. The binary layout starts with a
+ * format version byte, followed by:
+ * <ul>
+ * <li>id and workflow id, as 16 raw bytes when they are canonical UUIDs or as
+ * length-prefixed UTF-8 otherwise</li>
+ * <li>type, as length-prefixed UTF-8</li>
+ * <li>status, as a one byte code</li>
+ * <li>version, created and updated timestamps, as unsigned varints</li>
+ * <li>since version 2, inline input, input ref, inline output and output
+ * ref, each as length-prefixed UTF-8</li>
+ * </ul>
+ * Binary messages are decoded straight from the delivery body. Version 1
+ * messages, without payloads, are still read.
+ */
+public class TaskCodec {
+
+	public static final String BINARY_CONTENT_TYPE = "application/x-wfm-task";
+
+	public static final String JSON_CONTENT_TYPE = "application/json";
+
+	private static final byte FORMAT_VERSION = 2;
+
+	private static final byte FORMAT_VERSION_NO_PAYLOADS = 1;
+
+	private static final byte ID_NULL = 0;
+
+	private static final byte ID_UUID = 1;
+
+	private static final byte ID_STRING = 2;
+
+	private final ObjectMapper objectMapper;
+
+	private final boolean binary;
+
+	/**
+	 * @param objectMapper The mapper for JSON messages.
+	 * @param binary Whether to write the binary layout rather than JSON.
+	 */
+	public TaskCodec(ObjectMapper objectMapper, boolean binary) {
+		this.objectMapper = objectMapper;
+		this.binary = binary;
+	}
+
+	/**
+	 * Returns the content type of the messages written by this codec.
+	 */
+	public String contentType() {
+		return binary ? BINARY_CONTENT_TYPE : JSON_CONTENT_TYPE;
+	}
+
+	public byte[] encode(Task task) {
+		if (!binary) {
+			return objectMapper.writeValueAsBytes(task);
+		}
+
+		byte[] id = idBytes(task.getId());
+		byte[] workflowId = idBytes(task.getWorkflowId());
+		byte[] type = utf8(task.getType());
+		byte[][] payloads = { utf8(task.getInput()), utf8(task.getInputRef()), utf8(task.getOutput()),
+				utf8(task.getOutputRef()) };
+
+		// version byte, two ids, type, status, three varints, four payloads
+		int size = 1 + idSize(workflowId) + idSize(id) + stringSize(type) + 1 + 5 + 10 + 10;
+		for (byte[] payload : payloads) {
+			size += stringSize(payload);
+		}
+		ByteBuffer buf = ByteBuffer.allocate(size);
+		buf.put(FORMAT_VERSION);
+		putId(buf, task.getId(), id);
+		putId(buf, task.getWorkflowId(), workflowId);
+		putString(buf, type);
+		buf.put(task.getStatus() != null ? (byte) TaskStatus.valueOf(task.getStatus()).code() : 0);
+		putVarint(buf, task.getVersion() != null ? task.getVersion() + 1 : 0);
+		putVarint(buf, task.getCreatedAt());
+		putVarint(buf, task.getUpdatedAt());
+		for (byte[] payload : payloads) {
+			putString(buf, payload);
+		}
+		return Arrays.copyOf(buf.array(), buf.position());
+	}
+
+	/**
+	 * Decodes a message, in the format given by its content type. Messages
+	 * without a binary content type are read as JSON.
+	 * @param contentType The content type of the message, may be null.
+	 * @param body The message body.
+	 * @throws IllegalArgumentException If the binary layout is malformed or of
+	 *         an unknown version.
+	 */
+	public Task decode(String contentType, byte[] body) {
+		if (!BINARY_CONTENT_TYPE.equals(contentType)) {
+			return objectMapper.readValue(body, Task.class);
+		}
+
+		try {
+			ByteBuffer buf = ByteBuffer.wrap(body);
+			byte format = buf.get();
+			if (format != FORMAT_VERSION && format != FORMAT_VERSION_NO_PAYLOADS) {
+				throw new IllegalArgumentException("Unsupported task message format " + format);
+			}
+
+			Task task = new Task();
+			task.setId(getId(buf));
+			task.setWorkflowId(getId(buf));
+			task.setType(getString(buf));
+			int status = buf.get();
+			if (status > 0) {
+				task.setStatus(TaskStatus.ofCode(status).name());
+			}
+			long version = getVarint(buf);
+			if (version > 0) {
+				task.setVersion((int) (version - 1));
+			}
+			task.setCreatedAt(getVarint(buf));
+			task.setUpdatedAt(getVarint(buf));
+			if (format >= FORMAT_VERSION) {
+				task.setInput(getString(buf));
+				task.setInputRef(getString(buf));
+				task.setOutput(getString(buf));
+				task.setOutputRef(getString(buf));
+			}
+			return task;
+		}
+		catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Malformed task message", e);
+		}
+	}
+
+	/**
+	 * Returns the UTF-8 bytes of an id, or null if it is absent or a canonical
+	 * UUID.
+	 */
+	private static byte[] idBytes(String id) {
+		return id == null || isUuid(id) ? null : id.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] utf8(String s) {
+		return s != null ? s.getBytes(StandardCharsets.UTF_8) : null;
+	}
+
+	private static int stringSize(byte[] utf8) {
+		return 5 + (utf8 != null ? utf8.length : 0);
+	}
+
+	private static int idSize(byte[] utf8) {
+		return 1 + (utf8 == null ? 16 : 5 + utf8.length);
+	}
+
+	private static boolean isUuid(String s) {
+		if (s.length() != 36 || s.charAt(8) != '-' || s.charAt(13) != '-' || s.charAt(18) != '-'
+				|| s.charAt(23) != '-') {
+			return false;
+		}
+		for (int i = 0; i < 36; i++) {
+			char c = s.charAt(i);
+			if (c != '-' && !(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void putId(ByteBuffer buf, String id, byte[] utf8) {
+		if (id == null) {
+			buf.put(ID_NULL);
+		}
+		else if (utf8 == null) {
+			UUID uuid = UUID.fromString(id);
+			buf.put(ID_UUID);
+			buf.putLong(uuid.getMostSignificantBits());
+			buf.putLong(uuid.getLeastSignificantBits());
+		}
+		else {
+			buf.put(ID_STRING);
+			putVarint(buf, utf8.length);
+			buf.put(utf8);
+		}
+	}
+
+	private static String getId(ByteBuffer buf) {
+		byte kind = buf.get();
+		switch (kind) {
+			case ID_NULL:
+				return null;
+			case ID_UUID:
+				return new UUID(buf.getLong(), buf.getLong()).toString();
+			case ID_STRING:
+				return utf8(buf, (int) getVarint(buf));
+			default:
+				throw new IllegalArgumentException("Malformed task message id " + kind);
+		}
+	}
+
+	private static void putString(ByteBuffer buf, byte[] utf8) {
+		if (utf8 == null) {
+			putVarint(buf, 0);
+		}
+		else {
+			putVarint(buf, utf8.length + 1);
+			buf.put(utf8);
+		}
+	}
+
+	private static String getString(ByteBuffer buf) {
+		int len = (int) getVarint(buf);
+		return len == 0 ? null : utf8(buf, len - 1);
+	}
+
+	private static String utf8(ByteBuffer buf, int len) {
+		String s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+		buf.position(buf.position() + len);
+		return s;
+	}
+
+	private static void putVarint(ByteBuffer buf, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buf.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buf.put((byte) value);
+	}
+
+	private static long getVarint(ByteBuffer buf) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buf.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed task message varint");
+	}
+
+}
@@ -1,9 +1,20 @@
 package com.smartcommunity.workflowpoc.services;
 
+import java.util.List;
+
 /**
  * Interface for processing task completion notifications.
  */
 public interface TaskCompleteProcessor {
 
     void processTaskCompletion(String taskId, boolean success);
+
+    /**
+     * Processes the completions of tasks of the same workflow, in order.
+     * @param workflowId The ID of the workflow.
+     * @param completions The completions, in arrival order.
+     */
+    default void processTaskCompletions(String workflowId, List<TaskCompletion> completions) {
+        completions.forEach(c -> processTaskCompletion(c.taskId(), c.success()));
+    }
 }
@@ -0,0 +1,10 @@
+package com.smartcommunity.workflowpoc.services;
+
+/**
+ * A task completion notification, as received from a worker.
+ * @param taskId The ID of the task.
+ * @param workflowId The ID of the workflow of the task, if known.
+ * @param success Whether the task was completed successfully.
+ */
+public record TaskCompletion(String taskId, String workflowId, boolean success) {
+}
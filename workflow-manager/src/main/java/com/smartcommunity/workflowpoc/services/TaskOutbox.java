@@ -0,0 +1,138 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.smartcommunity.workflowpoc.domain.OutboxEntry;
+import com.smartcommunity.workflowpoc.domain.Task;
+
+import jakarta.transaction.Transactional;
+
+/**
+ * Service for the outbox of tasks to dispatch.
+ *
+ * Entries are written in the transaction that makes their tasks ready, so
+ * that a task can not be stored without its dispatch being recorded, and
+ * are deleted once the broker confirmed the dispatch. Entries being relayed
+ * are claimed by pushing their availability forward, so that they are
+ * picked up again only if their dispatch is not confirmed in time.
+ */
+@Service
+public class TaskOutbox {
+
+    private static final String INSERT_SQL = "INSERT INTO task_outbox (task_id, workflow_id, available_at) "
+            + "VALUES (?, ?, ?)";
+
+    private static final String SELECT_SQL = "SELECT id, task_id, workflow_id, available_at FROM task_outbox "
+            + "WHERE available_at <= ? ORDER BY available_at, id LIMIT ?";
+
+    private static final String DEFER_SQL = "UPDATE task_outbox SET available_at = ? WHERE id = ?";
+
+    private static final String DELETE_SQL = "DELETE FROM task_outbox WHERE id = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${persistence.insert-batch-size:1000}")
+    private int insertBatchSize;
+
+    private final Semaphore wakeup = new Semaphore(0);
+
+    /**
+     * Records tasks to dispatch, within the current transaction.
+     *
+     * @param tasks
+     * @param availableAt
+     */
+    public void addAll(Collection<Task> tasks, long availableAt) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, tasks, insertBatchSize, (ps, task) -> {
+            ps.setString(1, task.getId());
+            ps.setString(2, task.getWorkflowId());
+            ps.setLong(3, availableAt);
+        });
+    }
+
+    /**
+     * Replaces all the entries with the given tasks, available now.
+     *
+     * @param tasks
+     */
+    @Transactional
+    public void reset(Collection<Task> tasks) {
+        jdbcTemplate.update("DELETE FROM task_outbox");
+        addAll(tasks, System.currentTimeMillis());
+    }
+
+    /**
+     * Takes the entries available now, oldest first, hiding them until the
+     * claim expires.
+     *
+     * @param limit
+     * @param claimTimeout
+     * @return
+     */
+    @Transactional
+    public List<OutboxEntry> claim(int limit, long claimTimeout) {
+        long now = System.currentTimeMillis();
+        List<OutboxEntry> entries = jdbcTemplate.query(SELECT_SQL, (rs, i) -> {
+            OutboxEntry entry = new OutboxEntry();
+            entry.setId(rs.getLong("id"));
+            entry.setTaskId(rs.getString("task_id"));
+            entry.setWorkflowId(rs.getString("workflow_id"));
+            entry.setAvailableAt(rs.getLong("available_at"));
+            return entry;
+        }, now, limit);
+        if (!entries.isEmpty()) {
+            defer(entries.stream().map(OutboxEntry::getId).toList(), now + claimTimeout);
+        }
+        return entries;
+    }
+
+    /**
+     * Makes entries available again at the given time.
+     *
+     * @param ids
+     * @param availableAt
+     */
+    public void defer(List<Long> ids, long availableAt) {
+        jdbcTemplate.batchUpdate(DEFER_SQL, ids.stream().map(id -> new Object[] { availableAt, id }).toList());
+    }
+
+    /**
+     * Deletes the entries of dispatched tasks.
+     *
+     * @param ids
+     */
+    public void delete(List<Long> ids) {
+        jdbcTemplate.batchUpdate(DELETE_SQL, ids.stream().map(id -> new Object[] { id }).toList());
+    }
+
+    /**
+     * Wakes up the relay, once new entries are committed.
+     */
+    public void signal() {
+        if (wakeup.availablePermits() == 0) {
+            wakeup.release();
+        }
+    }
+
+    /**
+     * Waits for a signal, at most the given time.
+     *
+     * @param timeout
+     * @throws InterruptedException
+     */
+    public void await(long timeout) throws InterruptedException {
+        if (wakeup.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+            wakeup.drainPermits();
+        }
+    }
+
+}
@@ -1,10 +1,22 @@
 package com.smartcommunity.workflowpoc.services;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Service;
 
+import com.smartcommunity.workflowpoc.domain.StringListConverter;
 import com.smartcommunity.workflowpoc.domain.Task;
 import com.smartcommunity.workflowpoc.domain.TaskStatus;
+import com.smartcommunity.workflowpoc.repository.StatusCount;
 import com.smartcommunity.workflowpoc.repository.TaskRepository;
 
 import jakarta.transaction.Transactional;
@@ -16,34 +28,184 @@ import jakarta.transaction.Transactional;
 @Transactional
 public class TaskStoreService {
 
+    private static final String INSERT_SQL = "INSERT INTO task "
+            + "(id, version, type, created_at, updated_at, status_code, workflow_id, pos, ref, depends_on, input, "
+            + "input_ref) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String TASK_COLUMNS = "id, version, type, created_at, updated_at, status_code, workflow_id, "
+            + "pos, ref, depends_on, input, input_ref, output, output_ref";
+
+    private static final String ARCHIVE_SQL = "INSERT INTO task_archive (" + TASK_COLUMNS + ", archived_at) "
+            + "SELECT " + TASK_COLUMNS + ", ? FROM task WHERE workflow_id IN (%s)";
+
+    private static final String DELETE_SQL = "DELETE FROM task WHERE workflow_id IN (%s)";
+
+    private static final String ARCHIVED_SQL = "SELECT " + TASK_COLUMNS + " FROM task_archive ";
+
+    private static final StringListConverter LIST_CONVERTER = new StringListConverter();
+
     @Autowired
     private TaskRepository taskRepository;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TaskCache taskCache;
+
+    @Value("${persistence.insert-batch-size:1000}")
+    private int insertBatchSize;
+
     /**
-     * Initiates a new task or updates an existing one to PENDING state.
+     * Inserts new tasks in PENDING state with JDBC batches, within the current
+     * transaction. Ids are generated upfront, unless already assigned by the
+     * caller, so no read is needed.
      * 
-     * @param task
+     * @param tasks
      * @return
      */
-    public Task store(Task task) {
-        Task dbTask = task.getId() != null ? taskRepository.findById(task.getId()).orElse(null) : null;
-
-        if (dbTask == null) {
-            task.setId(java.util.UUID.randomUUID().toString());
+    public List<Task> storeAll(List<Task> tasks) {
+        long now = System.currentTimeMillis();
+        for (Task task : tasks) {
+            if (task.getId() != null) {
+                continue;
+            }
+            task.setId(UUID.randomUUID().toString());
             task.setVersion(0);
-            task.setCreatedAt(System.currentTimeMillis());
-            task.setUpdatedAt(System.currentTimeMillis());
-            task.setStatus(TaskStatus.PENDING.name());
-            return taskRepository.saveAndFlush(task);            
-        } else {
-            task.setUpdatedAt(System.currentTimeMillis());
+            task.setCreatedAt(now);
+            task.setUpdatedAt(now);
             task.setStatus(TaskStatus.PENDING.name());
-            return taskRepository.saveAndFlush(task);
         }
+
+        jdbcTemplate.batchUpdate(INSERT_SQL, tasks, insertBatchSize, (ps, task) -> {
+            ps.setString(1, task.getId());
+            ps.setInt(2, task.getVersion());
+            ps.setString(3, task.getType());
+            ps.setLong(4, task.getCreatedAt());
+            ps.setLong(5, task.getUpdatedAt());
+            ps.setShort(6, TaskStatus.valueOf(task.getStatus()).code());
+            ps.setString(7, task.getWorkflowId());
+            ps.setObject(8, task.getPosition());
+            ps.setString(9, task.getRef());
+            ps.setString(10, LIST_CONVERTER.convertToDatabaseColumn(task.getDependsOn()));
+            ps.setString(11, task.getInput());
+            ps.setString(12, task.getInputRef());
+        });
+        return tasks;
     }
 
+    /**
+     * Reads the state of a task, from the task cache when possible.
+     * 
+     * @param id
+     * @return
+     */
     public Task getTaskById(String id) {
-        return taskRepository.findById(id).orElse(null);
+        return taskCache.get(id, k -> taskRepository.findById(k).orElseGet(() -> jdbcTemplate
+            .query(ARCHIVED_SQL + "WHERE id = ?", TaskStoreService::mapArchived, k)
+            .stream()
+            .findFirst()
+            .orElse(null)));
+    }
+
+    /**
+     * Reads the payloads of a task from the store, archived or not. Payloads
+     * are not kept in the task cache.
+     * 
+     * @param id
+     * @return the task with only its id and payloads, or null if unknown.
+     */
+    public Task getTaskPayloads(String id) {
+        String sql = "SELECT id, input, input_ref, output, output_ref FROM %s WHERE id = ?";
+        RowMapper<Task> mapper = (rs, i) -> {
+            Task task = new Task();
+            task.setId(rs.getString("id"));
+            task.setInput(rs.getString("input"));
+            task.setInputRef(rs.getString("input_ref"));
+            task.setOutput(rs.getString("output"));
+            task.setOutputRef(rs.getString("output_ref"));
+            return task;
+        };
+        List<Task> found = jdbcTemplate.query(String.format(sql, "task"), mapper, id);
+        if (found.isEmpty()) {
+            found = jdbcTemplate.query(String.format(sql, "task_archive"), mapper, id);
+        }
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * Reads the tasks of a workflow, from the archive once moved there.
+     * 
+     * @param workflowId
+     * @return
+     */
+    public List<Task> getTasksByWorkflowId(String workflowId) {
+        List<Task> tasks = taskRepository.findByWorkflowIdOrderByPositionAsc(workflowId);
+        if (!tasks.isEmpty()) {
+            return tasks;
+        }
+        return jdbcTemplate.query(ARCHIVED_SQL + "WHERE workflow_id = ? ORDER BY pos", TaskStoreService::mapArchived,
+                workflowId);
+    }
+
+    /**
+     * Counts the tasks of a workflow per status, with a single aggregate query.
+     * 
+     * @param workflowId
+     * @return
+     */
+    public Map<String, Long> getStatusSummary(String workflowId) {
+        Map<String, Long> summary = TaskStatus.emptySummary();
+        List<StatusCount> counts = taskRepository.countByStatus(workflowId);
+        if (!counts.isEmpty()) {
+            counts.forEach(c -> summary.put(c.getStatus(), c.getCount()));
+            return summary;
+        }
+        jdbcTemplate.query("SELECT status_code, COUNT(*) FROM task_archive WHERE workflow_id = ? GROUP BY status_code",
+                rs -> {
+                    summary.put(TaskStatus.ofCode(rs.getShort(1)).name(), rs.getLong(2));
+                }, workflowId);
+        return summary;
+    }
+
+    /**
+     * Moves the tasks of finished workflows to the archive table, in bulk.
+     * 
+     * @param workflowIds
+     * @return the number of tasks moved.
+     */
+    public int archiveTasks(List<String> workflowIds) {
+        if (workflowIds.isEmpty()) {
+            return 0;
+        }
+        String in = String.join(",", Collections.nCopies(workflowIds.size(), "?"));
+        Object[] args = new Object[workflowIds.size() + 1];
+        args[0] = System.currentTimeMillis();
+        for (int i = 0; i < workflowIds.size(); i++) {
+            args[i + 1] = workflowIds.get(i);
+        }
+        int moved = jdbcTemplate.update(String.format(ARCHIVE_SQL, in), args);
+        jdbcTemplate.update(String.format(DELETE_SQL, in), workflowIds.toArray());
+        return moved;
+    }
+
+    private static Task mapArchived(ResultSet rs, int i) throws SQLException {
+        Task task = new Task();
+        task.setId(rs.getString("id"));
+        task.setVersion(rs.getInt("version"));
+        task.setType(rs.getString("type"));
+        task.setCreatedAt(rs.getLong("created_at"));
+        task.setUpdatedAt(rs.getLong("updated_at"));
+        task.setStatus(TaskStatus.ofCode(rs.getShort("status_code")).name());
+        task.setWorkflowId(rs.getString("workflow_id"));
+        task.setPosition((Integer) rs.getObject("pos"));
+        task.setRef(rs.getString("ref"));
+        task.setDependsOn(LIST_CONVERTER.convertToEntityAttribute(rs.getString("depends_on")));
+        task.setInput(rs.getString("input"));
+        task.setInputRef(rs.getString("input_ref"));
+        task.setOutput(rs.getString("output"));
+        task.setOutputRef(rs.getString("output_ref"));
+        return task;
     }
 
 }
@@ -0,0 +1,33 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+
+/**
+ * Transport of ready tasks to the workers and of their completions back to
+ * the manager.
+ *
+ * The implementation is selected with the messaging.transport property:
+ * "amqp", the default, goes through RabbitMQ to remote workers, "local" runs
+ * the tasks within the manager, for single node deployments.
+ */
+public interface TaskTransport {
+
+    /**
+     * Connects the transport and starts delivering completions.
+     * @param taskCompleteProcessor The processor of the task completions.
+     * @throws Exception If the transport could not be started.
+     */
+    void init(TaskCompleteProcessor taskCompleteProcessor) throws Exception;
+
+    /**
+     * Sends a task to the workers handling its type.
+     * @param task The task to send.
+     * @param priority The priority of the task, where supported.
+     * @return a future completed when the task has been accepted.
+     * @throws Exception If the task could not be sent.
+     */
+    CompletableFuture<Void> sendTask(Task task, int priority) throws Exception;
+
+}
@@ -0,0 +1,204 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+import com.smartcommunity.workflowpoc.domain.Workflow;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Pushes task state changes of running workflows to Server-Sent Events
+ * subscribers.
+ *
+ * Changes are only recorded on the completion path: every subscriber keeps
+ * the latest state of each changed task, and a delta with whatever changed
+ * is sent at most once per interval, off the completion threads. A slow
+ * client thus only receives fewer, larger deltas, and never holds back the
+ * processing of completions.
+ */
+@Service
+public class WorkflowEvents {
+
+	private static final Logger logger = LoggerFactory.getLogger(WorkflowEvents.class);
+
+	/**
+	 * Latest known state of a task.
+	 */
+	public record TaskDelta(String id, String status, long updatedAt) {
+	}
+
+	/**
+	 * Changes of a workflow since the previous event.
+	 * @param workflowId The ID of the workflow.
+	 * @param status The new status of the workflow, or null if unchanged.
+	 * @param tasks The tasks changed.
+	 */
+	public record WorkflowDelta(String workflowId, String status, List<TaskDelta> tasks) {
+	}
+
+	@Value("${events.interval:250}")
+	private long interval;
+
+	@Value("${events.timeout:1800000}")
+	private long timeout;
+
+	private final Map<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+			Thread.ofPlatform().name("workflow-events").daemon().factory());
+
+	private final ExecutorService sender = Executors.newVirtualThreadPerTaskExecutor();
+
+	/**
+	 * Opens a stream of the changes of a running workflow. Must be called
+	 * holding the workflow stripe, so that the end of the workflow is not
+	 * missed.
+	 * @param workflowId The ID of the workflow.
+	 */
+	public SseEmitter subscribe(String workflowId) {
+		SseEmitter emitter = new SseEmitter(timeout);
+		Subscriber subscriber = new Subscriber(workflowId, emitter);
+		subscribers.computeIfAbsent(workflowId, k -> ConcurrentHashMap.newKeySet()).add(subscriber);
+		emitter.onCompletion(() -> unsubscribe(subscriber));
+		emitter.onTimeout(() -> unsubscribe(subscriber));
+		emitter.onError(e -> unsubscribe(subscriber));
+		return emitter;
+	}
+
+	/**
+	 * Opens a stream for a finished workflow, holding just its final status.
+	 * @param workflow The workflow.
+	 */
+	public SseEmitter finished(Workflow workflow) {
+		SseEmitter emitter = new SseEmitter(timeout);
+		Subscriber subscriber = new Subscriber(workflow.getId(), emitter);
+		subscriber.finish(workflow.getStatus());
+		return emitter;
+	}
+
+	/**
+	 * Records a task state change for the subscribers of its workflow.
+	 */
+	public void taskChanged(Task task) {
+		Set<Subscriber> set = subscribers.get(task.getWorkflowId());
+		if (set == null) {
+			return;
+		}
+		TaskDelta delta = new TaskDelta(task.getId(), task.getStatus(), task.getUpdatedAt());
+		set.forEach(s -> s.change(delta));
+	}
+
+	/**
+	 * Sends the final status of a workflow to its subscribers and closes
+	 * their streams.
+	 */
+	public void workflowFinished(Workflow workflow) {
+		Set<Subscriber> set = subscribers.remove(workflow.getId());
+		if (set != null) {
+			set.forEach(s -> s.finish(workflow.getStatus()));
+		}
+	}
+
+	private void unsubscribe(Subscriber subscriber) {
+		subscribers.computeIfPresent(subscriber.workflowId, (k, set) -> {
+			set.remove(subscriber);
+			return set.isEmpty() ? null : set;
+		});
+	}
+
+	@PreDestroy
+	public void close() {
+		timer.shutdownNow();
+		sender.shutdownNow();
+		subscribers.values().forEach(set -> set.forEach(s -> s.emitter.complete()));
+		subscribers.clear();
+	}
+
+	private final class Subscriber {
+
+		private final String workflowId;
+
+		private final SseEmitter emitter;
+
+		private final Map<String, TaskDelta> pending = new LinkedHashMap<>();
+
+		private String status;
+
+		private boolean scheduled;
+
+		Subscriber(String workflowId, SseEmitter emitter) {
+			this.workflowId = workflowId;
+			this.emitter = emitter;
+		}
+
+		synchronized void change(TaskDelta delta) {
+			// only the latest state of a task is kept
+			pending.put(delta.id(), delta);
+			schedule();
+		}
+
+		synchronized void finish(String status) {
+			this.status = status;
+			schedule();
+		}
+
+		private void schedule() {
+			if (!scheduled) {
+				scheduled = true;
+				timer.schedule(() -> sender.execute(this::flush), interval, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		private void flush() {
+			List<TaskDelta> tasks;
+			String finalStatus;
+			synchronized (this) {
+				tasks = new ArrayList<>(pending.values());
+				pending.clear();
+				finalStatus = status;
+			}
+
+			try {
+				emitter.send(SseEmitter.event()
+					.name("delta")
+					.data(new WorkflowDelta(workflowId, finalStatus, tasks), MediaType.APPLICATION_JSON));
+				if (finalStatus != null) {
+					emitter.complete();
+					return;
+				}
+			}
+			catch (Exception e) {
+				// client gone
+				logger.debug("Closing event stream of workflow {}: {}", workflowId, e.getMessage());
+				unsubscribe(this);
+				return;
+			}
+
+			synchronized (this) {
+				// changes arrived while sending go with the next delta
+				scheduled = false;
+				if (!pending.isEmpty() || status != null) {
+					schedule();
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+import com.smartcommunity.workflowpoc.domain.Workflow;
+
+/**
+ * Dependency graph of the tasks of a workflow, by position.
+ *
+ * When any task declares dependencies the workflow is a DAG and the
+ * declared edges are used; otherwise a parallel workflow has no edges and a
+ * sequential one is a chain in list order. Tasks are referenced by their
+ * ref, or by their position when they have none.
+ */
+public final class WorkflowGraph {
+
+	private final int[][] successors;
+
+	private final int[] indegree;
+
+	private WorkflowGraph(int[][] successors, int[] indegree) {
+		this.successors = successors;
+		this.indegree = indegree;
+	}
+
+	/**
+	 * Builds and validates the graph of a workflow.
+	 * @param workflow The workflow.
+	 * @return The graph.
+	 * @throws IllegalArgumentException If a reference is unknown or
+	 *         duplicated, or dependencies form a cycle.
+	 */
+	public static WorkflowGraph of(Workflow workflow) {
+		List<Task> list = workflow.getTasks();
+		int n = list.size();
+		boolean dag = list.stream().anyMatch(t -> t.getDependsOn() != null && !t.getDependsOn().isEmpty());
+
+		List<List<Integer>> edges = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			edges.add(new ArrayList<>());
+		}
+
+		if (dag) {
+			Map<String, Integer> refs = new HashMap<>();
+			for (int i = 0; i < n; i++) {
+				String ref = refOf(list.get(i), i);
+				if (ref.indexOf(',') >= 0) {
+					throw new IllegalArgumentException("Invalid task ref " + ref);
+				}
+				if (refs.put(ref, i) != null) {
+					throw new IllegalArgumentException("Duplicate task ref " + ref);
+				}
+			}
+			for (int i = 0; i < n; i++) {
+				List<String> deps = list.get(i).getDependsOn();
+				if (deps == null) {
+					continue;
+				}
+				for (String dep : deps) {
+					Integer from = refs.get(dep);
+					if (from == null) {
+						throw new IllegalArgumentException("Unknown dependency " + dep + " of task " + refOf(list.get(i), i));
+					}
+					edges.get(from).add(i);
+				}
+			}
+		}
+		else if (!workflow.isParallel()) {
+			for (int i = 0; i + 1 < n; i++) {
+				edges.get(i).add(i + 1);
+			}
+		}
+
+		int[][] successors = new int[n][];
+		int[] indegree = new int[n];
+		for (int i = 0; i < n; i++) {
+			successors[i] = edges.get(i).stream().mapToInt(Integer::intValue).toArray();
+			for (int s : successors[i]) {
+				indegree[s]++;
+			}
+		}
+
+		checkAcyclic(successors, indegree);
+		return new WorkflowGraph(successors, indegree);
+	}
+
+	/**
+	 * Returns the reference of a task: its ref, or its position.
+	 */
+	public static String refOf(Task task, int position) {
+		return task.getRef() != null ? task.getRef() : String.valueOf(position);
+	}
+
+	public int size() {
+		return indegree.length;
+	}
+
+	public int[] successors(int position) {
+		return successors[position];
+	}
+
+	public int indegree(int position) {
+		return indegree[position];
+	}
+
+	private static void checkAcyclic(int[][] successors, int[] indegree) {
+		int n = indegree.length;
+		int[] degree = indegree.clone();
+		int[] queue = new int[n];
+		int head = 0;
+		int tail = 0;
+		for (int i = 0; i < n; i++) {
+			if (degree[i] == 0) {
+				queue[tail++] = i;
+			}
+		}
+		while (head < tail) {
+			for (int s : successors[queue[head++]]) {
+				if (--degree[s] == 0) {
+					queue[tail++] = s;
+				}
+			}
+		}
+		if (tail < n) {
+			throw new IllegalArgumentException("Task dependencies contain a cycle");
+		}
+	}
+
+}
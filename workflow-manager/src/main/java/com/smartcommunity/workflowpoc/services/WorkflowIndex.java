@@ -0,0 +1,134 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+import com.smartcommunity.workflowpoc.domain.Workflow;
+
+/**
+ * In-memory index of in-flight tasks.
+ *
+ * Maps every task id to its owning workflow, its position and its successors,
+ * and keeps per workflow the number of unfinished predecessors of each task,
+ * so that completions are resolved and newly ready tasks found in time
+ * proportional to the successors only, regardless of how many workflows are
+ * running. Entries are dropped as soon as a task completes and when a
+ * workflow is cleaned up.
+ *
+ * Lookups are lock-free; updates for the same workflow are expected to be
+ * serialized by the caller.
+ */
+public class WorkflowIndex {
+
+	/**
+	 * Location of a task inside its workflow.
+	 * @param workflow The owning workflow.
+	 * @param task The task itself.
+	 * @param position The position of the task in the workflow.
+	 * @param successors The positions of the tasks depending on this one.
+	 */
+	public record TaskRef(Workflow workflow, Task task, int position, int[] successors) {
+	}
+
+	private static final class State {
+
+		private final Task[] tasks;
+
+		private final int[] waiting;
+
+		private int remaining;
+
+		State(Task[] tasks, int[] waiting) {
+			this.tasks = tasks;
+			this.waiting = waiting;
+			this.remaining = tasks.length;
+		}
+	}
+
+	private final Map<String, TaskRef> tasks = new ConcurrentHashMap<>();
+
+	private final Map<String, State> states = new ConcurrentHashMap<>();
+
+	/**
+	 * Indexes all tasks of a workflow. Tasks must already have an id.
+	 * @param workflow The workflow to index.
+	 * @param graph The dependency graph of the workflow.
+	 * @return The tasks without predecessors, ready to run.
+	 */
+	public List<Task> add(Workflow workflow, WorkflowGraph graph) {
+		Task[] ordered = workflow.getTasks().toArray(new Task[0]);
+		int[] waiting = new int[ordered.length];
+		List<Task> ready = new ArrayList<>();
+		for (int i = 0; i < ordered.length; i++) {
+			waiting[i] = graph.indegree(i);
+			tasks.put(ordered[i].getId(), new TaskRef(workflow, ordered[i], i, graph.successors(i)));
+			if (waiting[i] == 0) {
+				ready.add(ordered[i]);
+			}
+		}
+		states.put(workflow.getId(), new State(ordered, waiting));
+		return ready;
+	}
+
+	/**
+	 * Looks up an in-flight task.
+	 * @param taskId The ID of the task.
+	 * @return The task location, or null if the task is not in flight.
+	 */
+	public TaskRef get(String taskId) {
+		return tasks.get(taskId);
+	}
+
+	/**
+	 * Drops a completed task from the index and releases its successors.
+	 * @param taskId The ID of the task.
+	 * @return The successors whose predecessors are now all completed, or
+	 *         null if the task was not indexed.
+	 */
+	public List<Task> complete(String taskId) {
+		TaskRef ref = tasks.remove(taskId);
+		if (ref == null) {
+			return null;
+		}
+		State state = states.get(ref.workflow().getId());
+		if (state == null) {
+			return Collections.emptyList();
+		}
+		state.remaining--;
+
+		List<Task> ready = new ArrayList<>(ref.successors().length);
+		for (int s : ref.successors()) {
+			if (--state.waiting[s] == 0) {
+				ready.add(state.tasks[s]);
+			}
+		}
+		return ready;
+	}
+
+	/**
+	 * Returns the number of tasks of a workflow not yet completed.
+	 * @param workflowId The ID of the workflow.
+	 */
+	public int remaining(String workflowId) {
+		State state = states.get(workflowId);
+		return state != null ? state.remaining : 0;
+	}
+
+	/**
+	 * Drops all the tasks of a workflow from the index.
+	 * @param workflow The workflow to clean up.
+	 */
+	public void removeWorkflow(Workflow workflow) {
+		workflow.getTasks().forEach(t -> tasks.remove(t.getId()));
+		states.remove(workflow.getId());
+	}
+
+	public int size() {
+		return tasks.size();
+	}
+
+}
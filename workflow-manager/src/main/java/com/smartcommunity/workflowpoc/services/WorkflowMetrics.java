@@ -0,0 +1,76 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Task lifecycle metrics of the manager.
+ *
+ * Timers are registered once per task type or status and cached, so that
+ * recording on the hot path is a map lookup and a histogram update.
+ */
+@Service
+public class WorkflowMetrics {
+
+	private static final String NO_TYPE = "none";
+
+	@Autowired
+	private MeterRegistry registry;
+
+	private final Map<String, Timer> dispatch = new ConcurrentHashMap<>();
+
+	private final Map<String, Timer> nextDispatch = new ConcurrentHashMap<>();
+
+	private final Map<String, Timer> duration = new ConcurrentHashMap<>();
+
+	/**
+	 * Records a task dispatch confirmed by the broker.
+	 * @param type The type of the task.
+	 * @param readyAt When the task became ready, in nanos.
+	 * @param completedAt When the completion that made the task ready was
+	 *            applied, in nanos, or 0 for tasks without predecessors.
+	 */
+	public void taskDispatched(String type, long readyAt, long completedAt) {
+		long now = System.nanoTime();
+		timer(dispatch, type, t -> Timer.builder("wfm.task.dispatch")
+			.description("Time from a task being ready to its dispatch confirmed by the broker")
+			.tag("type", t)
+			.publishPercentileHistogram()
+			.register(registry)).record(now - readyAt, TimeUnit.NANOSECONDS);
+		if (completedAt > 0) {
+			timer(nextDispatch, type, t -> Timer.builder("wfm.task.next-dispatch")
+				.description("Time from a completion to the dispatch of the tasks it released")
+				.tag("type", t)
+				.publishPercentileHistogram()
+				.register(registry)).record(now - completedAt, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Records the end of a workflow.
+	 * @param status The final status.
+	 * @param createdAt When the workflow was created, in epoch millis.
+	 */
+	public void workflowFinished(String status, long createdAt) {
+		timer(duration, status, s -> Timer.builder("wfm.workflow.duration")
+			.description("Time from the creation of a workflow to its end")
+			.tag("status", s)
+			.publishPercentileHistogram()
+			.register(registry)).record(System.currentTimeMillis() - createdAt, TimeUnit.MILLISECONDS);
+	}
+
+	private static Timer timer(Map<String, Timer> timers, String key, Function<String, Timer> factory) {
+		String k = key != null ? key : NO_TYPE;
+		Timer timer = timers.get(k);
+		return timer != null ? timer : timers.computeIfAbsent(k, factory);
+	}
+
+}
@@ -1,16 +1,29 @@
 package com.smartcommunity.workflowpoc.services;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Window;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import com.smartcommunity.workflowpoc.domain.Task;
 import com.smartcommunity.workflowpoc.domain.TaskStatus;
 import com.smartcommunity.workflowpoc.domain.Workflow;
+import com.smartcommunity.workflowpoc.domain.WorkflowStatus;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
 
 /**
@@ -22,41 +35,212 @@ public class WorkflowService implements TaskCompleteProcessor {
 	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(WorkflowService.class);
 
 	@Autowired
-	private MessagingService messagingService;
+	private TaskTransport taskTransport;
+
+	@Autowired
+	private DispatchScheduler dispatchScheduler;
+
+	@Autowired
+	private WorkflowEvents workflowEvents;
+
+	@Autowired
+	private WorkflowMetrics workflowMetrics;
+
+	@Autowired
+	private TaskCache taskCache;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
 
 	@Autowired
 	private TaskStoreService taskStoreService;
 
-	private Map<String, Workflow> workflows = new HashMap<>();
+	@Autowired
+	private WorkflowStoreService workflowStoreService;
+
+	@Autowired
+	private TaskOutbox taskOutbox;
+
+	@Autowired
+	private PayloadService payloadService;
+
+	@Value("${outbox.retry-delay:5000}")
+	private long retryDelay;
+
+	@Value("${messaging.max-priority:9}")
+	private int maxPriority;
+
+	private final Map<String, Workflow> workflows = new ConcurrentHashMap<>();
+
+	private final WorkflowIndex index = new WorkflowIndex();
+
+	private final StripedLock locks = new StripedLock(Runtime.getRuntime().availableProcessors() * 16);
 
 	@PostConstruct
 	public void init() throws Exception {
-		messagingService.init(this);
+		Gauge.builder("wfm.workflows.active", workflows, Map::size)
+			.description("Running workflows held in memory")
+			.register(meterRegistry);
+		Gauge.builder("wfm.tasks.indexed", index, WorkflowIndex::size)
+			.description("Tasks of running workflows not yet completed")
+			.register(meterRegistry);
+
+		// rebuild state before consuming completions, the outbox relay
+		// dispatches the ready tasks once started
+		List<Task> ready = recover();
+		taskOutbox.reset(ready);
+		taskTransport.init(this);
 	}
 
 	/**
-	 * Starts a new workflow by processing its tasks sequentially.
+	 * Starts a new workflow, dispatching every task as soon as the tasks it
+	 * depends on are completed. The tasks without predecessors are recorded
+	 * in the outbox with the workflow, and dispatched by the outbox relay.
 	 * @param workflow The workflow to start.
+	 * @throws IllegalArgumentException If the task dependencies are invalid.
 	 */
 	public Workflow startWorkflow(Workflow workflow) {
-		workflows.put(workflow.getId(), workflow);
-		if (workflow.getTasks() != null && !workflow.getTasks().isEmpty()) {
-			workflow.getTasks().forEach(task -> {
+		List<Task> roots = new ArrayList<>();
+		List<String> blobs = new ArrayList<>();
+		WorkflowGraph graph = prepare(workflow, System.currentTimeMillis(), roots, blobs);
+		start(List.of(workflow), List.of(graph), roots, blobs);
+		return workflow;
+	}
+
+	/**
+	 * Starts a batch of new workflows, storing all the valid ones in a single
+	 * transaction. Invalid workflows are skipped.
+	 * @param batch The workflows to start.
+	 * @return For each workflow, in order, null if started or else the reason
+	 *         why it was rejected.
+	 */
+	public List<String> startWorkflows(List<Workflow> batch) {
+		long now = System.currentTimeMillis();
+		List<String> errors = new ArrayList<>(batch.size());
+		List<Workflow> valid = new ArrayList<>(batch.size());
+		List<WorkflowGraph> graphs = new ArrayList<>(batch.size());
+		List<Task> roots = new ArrayList<>();
+		List<String> blobs = new ArrayList<>();
+		for (Workflow workflow : batch) {
+			try {
+				graphs.add(prepare(workflow, now, roots, blobs));
+				valid.add(workflow);
+				errors.add(null);
+			}
+			catch (IllegalArgumentException e) {
+				errors.add(e.getMessage());
+			}
+		}
+		if (!valid.isEmpty()) {
+			start(valid, graphs, roots, blobs);
+		}
+		return errors;
+	}
+
+	/**
+	 * Validates a new workflow and initializes it and its tasks, moving their
+	 * large inputs to the blob store.
+	 * @param roots Collects the tasks without predecessors.
+	 * @param blobs Collects the ids of the inputs moved to the blob store.
+	 * @return The dependency graph of the workflow.
+	 */
+	private WorkflowGraph prepare(Workflow workflow, long now, List<Task> roots, List<String> blobs) {
+		if (workflow.getId() == null) {
+			workflow.setId(UUID.randomUUID().toString());
+		}
+		if (workflow.getTasks() == null) {
+			workflow.setTasks(new ArrayList<>());
+		}
+		for (int i = 0; i < workflow.getTasks().size(); i++) {
+			if (workflow.getTasks().get(i) == null) {
+				throw new IllegalArgumentException("Missing task at position " + i);
+			}
+		}
+		WorkflowGraph graph = WorkflowGraph.of(workflow);
+
+		// the same range as the broker priorities, it weighs the dispatch turns
+		if (workflow.getPriority() != null) {
+			workflow.setPriority(Math.min(Math.max(workflow.getPriority(), 0), Math.max(maxPriority, 0)));
+		}
+		workflow.setStatus(WorkflowStatus.RUNNING.name());
+		workflow.setCreatedAt(now);
+		workflow.setUpdatedAt(now);
+		workflow.setTaskCount(workflow.getTasks().size());
+		int rootMark = roots.size();
+		int blobMark = blobs.size();
+		try {
+			for (int i = 0; i < workflow.getTasks().size(); i++) {
+				Task task = workflow.getTasks().get(i);
+				task.setId(UUID.randomUUID().toString());
+				task.setVersion(0);
+				task.setCreatedAt(now);
+				task.setUpdatedAt(now);
+				task.setStatus(TaskStatus.PENDING.name());
 				task.setWorkflowId(workflow.getId());
-				task = taskStoreService.store(task);
-			});
+				task.setPosition(i);
+				task.setRef(WorkflowGraph.refOf(task, i));
+				String blob = payloadService.offload(task);
+				if (blob != null) {
+					blobs.add(blob);
+				}
+				if (graph.indegree(i) == 0) {
+					roots.add(task);
+				}
+			}
+		}
+		catch (RuntimeException e) {
+			// the workflow is rejected, drop what it left behind
+			roots.subList(rootMark, roots.size()).clear();
+			List<String> stored = blobs.subList(blobMark, blobs.size());
+			payloadService.discard(stored);
+			stored.clear();
+			throw e;
+		}
+		return graph;
+	}
 
-			if (workflow.isParallel()) {
-				// start all tasks
-				workflow.getTasks().forEach(task -> doTask(task));
+	/**
+	 * Registers and stores prepared workflows, then wakes up the outbox relay.
+	 */
+	private void start(List<Workflow> batch, List<WorkflowGraph> graphs, List<Task> roots, List<String> blobs) {
+		// register before storing, so that the relay finds the tasks as soon
+		// as their outbox entries are committed
+		for (int i = 0; i < batch.size(); i++) {
+			Workflow workflow = batch.get(i);
+			WorkflowGraph graph = graphs.get(i);
+			if (!workflow.getTasks().isEmpty()) {
+				locks.run(workflow.getId(), () -> {
+					workflows.put(workflow.getId(), workflow);
+					index.add(workflow, graph);
+				});
 			}
-			else {
-				// start first
-				doTask(workflow.getTasks().get(0));
+		}
+
+		// workflows, tasks and outbox entries in a single transaction
+		try {
+			workflowStoreService.createAll(batch, roots);
+		}
+		catch (RuntimeException e) {
+			for (Workflow workflow : batch) {
+				locks.run(workflow.getId(), () -> {
+					index.removeWorkflow(workflow);
+					workflows.remove(workflow.getId());
+				});
 			}
+			// no task references the inputs moved to the blob store
+			payloadService.discard(blobs);
+			throw e;
 		}
 
-		return workflow;
+		for (Workflow workflow : batch) {
+			if (workflow.getTasks().isEmpty()) {
+				locks.run(workflow.getId(), () -> {
+					workflows.put(workflow.getId(), workflow);
+					finishWorkflow(workflow, WorkflowStatus.COMPLETED);
+				});
+			}
+		}
+		taskOutbox.signal();
 	}
 
 	/**
@@ -66,41 +250,75 @@ public class WorkflowService implements TaskCompleteProcessor {
 	 */
 	@Override
 	public void processTaskCompletion(String taskId, boolean success) {
+		dispatchScheduler.release(taskId);
 
-		Workflow workflow = workflows.values()
-			.stream()
-			.filter(wf -> wf.getTasks().stream().anyMatch(t -> t.getId().equals(taskId)))
-			.findFirst()
-			.orElse(null);
-
-		if (workflow == null) {
+		WorkflowIndex.TaskRef ref = index.get(taskId);
+		if (ref == null) {
 			logger.warn("No workflow found for completed task {}", taskId);
 			return;
 		}
 
-		// get task
-		int idx = workflow.getTasks().stream().map(Task::getId).toList().indexOf(taskId);
-		if (idx == -1) {
-			logger.warn("No task {} found in workflow {}", taskId, workflow.getId());
+		List<Ready> ready = new ArrayList<>();
+		locks.run(ref.workflow().getId(), () -> applyCompletion(taskId, success, ready));
+		dispatch(ready);
+	}
+
+	/**
+	 * Processes completions of tasks of the same workflow, taking the workflow
+	 * stripe once for all of them.
+	 */
+	@Override
+	public void processTaskCompletions(String workflowId, List<TaskCompletion> completions) {
+		completions.forEach(c -> dispatchScheduler.release(c.taskId()));
+		List<TaskCompletion> misrouted = new ArrayList<>();
+		List<Ready> ready = new ArrayList<>();
+		locks.run(workflowId, () -> {
+			for (TaskCompletion c : completions) {
+				WorkflowIndex.TaskRef ref = index.get(c.taskId());
+				if (ref != null && !ref.workflow().getId().equals(workflowId)) {
+					// task of another workflow, must run under its own stripe
+					misrouted.add(c);
+				}
+				else {
+					applyCompletion(c.taskId(), c.success(), ready);
+				}
+			}
+		});
+		dispatch(ready);
+		misrouted.forEach(c -> processTaskCompletion(c.taskId(), c.success()));
+	}
+
+	/**
+	 * Applies a task completion, holding the stripe of the owning workflow.
+	 * @param ready Collects the tasks released by the completion, dispatched
+	 *            once the stripe is unlocked.
+	 */
+	private void applyCompletion(String taskId, boolean success, List<Ready> ready) {
+		// re-check under lock: a duplicate completion may have raced us
+		WorkflowIndex.TaskRef ref = index.get(taskId);
+		if (ref == null) {
+			logger.warn("Task {} already completed", taskId);
 			return;
 		}
 
-		Task task = workflow.getTasks().get(idx);
+		Workflow workflow = ref.workflow();
+		Task task = ref.task();
+		long completedAt = System.nanoTime();
 
 		// process next on success
 		if (success) {
 			logger.info("Task {} of workflow {} completed successfully", taskId, workflow.getId());
+			finishTask(task, TaskStatus.COMPLETED);
+			List<Task> released = index.complete(taskId);
+			if (index.remaining(workflow.getId()) == 0) {
+				finishWorkflow(workflow, WorkflowStatus.COMPLETED);
+				return;
+			}
 
-			// proceed to next task if any
-			if (idx + 1 < workflow.getTasks().size()) {
-				try {
-					Task next = workflow.getTasks().get(idx + 1);
-					if (next != null && next.getStatus().equals(TaskStatus.PENDING.name())) {
-						doTask(next);
-					}
-				}
-				catch (Exception e) {
-					e.printStackTrace();
+			// proceed to the tasks whose dependencies are now all completed
+			for (Task next : released) {
+				if (TaskStatus.PENDING.name().equals(next.getStatus())) {
+					ready.add(new Ready(next, completedAt));
 				}
 			}
 
@@ -109,44 +327,289 @@ public class WorkflowService implements TaskCompleteProcessor {
 
 		{
 			// mark task as failed
-			task.setStatus("FAILED");
+			finishTask(task, TaskStatus.FAILED);
 			logger.info("Task {} of workflow {} marked as FAILED", taskId, workflow.getId());
 
+			// no further task will run for this workflow
+			finishWorkflow(workflow, WorkflowStatus.FAILED);
 		}
 
 	}
 
-	private void doTask(Task task) {
+	/**
+	 * Applies the final status of a task, as written to the store by its
+	 * worker. Must be called holding the workflow stripe.
+	 */
+	private void finishTask(Task task, TaskStatus status) {
+		// the worker moved the task to IN_PROGRESS, unless recovered so, and
+		// then to its status
+		int version = task.getVersion() != null ? task.getVersion() : 0;
+		task.setVersion(version + (TaskStatus.IN_PROGRESS.name().equals(task.getStatus()) ? 1 : 2));
+		task.setStatus(status.name());
+		task.setUpdatedAt(System.currentTimeMillis());
+		taskCache.put(task);
+		workflowEvents.taskChanged(task);
+	}
+
+	/**
+	 * Dispatches again a task reclaimed after its worker lease expired.
+	 * @param reclaimed The task, as moved back to PENDING in the store.
+	 */
+	public void redispatchTask(Task reclaimed) {
+		dispatchScheduler.release(reclaimed.getId());
+		WorkflowIndex.TaskRef found = index.get(reclaimed.getId());
+		if (found == null) {
+			logger.warn("No workflow found for reclaimed task {}", reclaimed.getId());
+			return;
+		}
+
+		Task ready = locks.call(found.workflow().getId(), () -> {
+			WorkflowIndex.TaskRef ref = index.get(reclaimed.getId());
+			if (ref == null) {
+				return null;
+			}
+			Task task = ref.task();
+			task.setVersion(reclaimed.getVersion());
+			task.setStatus(TaskStatus.PENDING.name());
+			task.setUpdatedAt(reclaimed.getUpdatedAt());
+			logger.info("Task {} of workflow {} reclaimed", task.getId(), task.getWorkflowId());
+			workflowEvents.taskChanged(task);
+			return task;
+		});
+		if (ready != null) {
+			doTask(ready);
+		}
+	}
+
+	/**
+	 * Marks a workflow as finished and drops it from the in-memory state.
+	 * Must be called holding the workflow stripe.
+	 */
+	private void finishWorkflow(Workflow workflow, WorkflowStatus status) {
+		logger.info("Workflow {} {}", workflow.getId(), status);
+		workflow.setStatus(status.name());
+		workflow.setUpdatedAt(System.currentTimeMillis());
+		// stored before it leaves memory, reads never find it still running
+		workflowStoreService.finish(workflow);
+		index.removeWorkflow(workflow);
+		workflows.remove(workflow.getId());
+		dispatchScheduler.cancel(workflow.getId());
+		workflowEvents.workflowFinished(workflow);
+		workflowMetrics.workflowFinished(workflow.getStatus(), workflow.getCreatedAt());
+	}
+
+	/**
+	 * Rebuilds the in-memory state of running workflows from the data store.
+	 * @return The tasks ready to be dispatched.
+	 */
+	private List<Task> recover() {
+		long start = System.currentTimeMillis();
+		workflowStoreService.streamRunning(workflow -> {
+			workflow.setTasks(new ArrayList<>(workflow.getTaskCount()));
+			workflows.put(workflow.getId(), workflow);
+		}, task -> {
+			Workflow workflow = workflows.get(task.getWorkflowId());
+			if (workflow != null) {
+				workflow.getTasks().add(task);
+			}
+		});
+
+		List<Task> ready = new ArrayList<>();
+		for (Workflow workflow : workflows.values()) {
+			locks.run(workflow.getId(), () -> resume(workflow, ready));
+		}
+
+		logger.info("Recovered {} running workflows, {} tasks in flight, {} ready in {} ms", workflows.size(),
+				index.size(), ready.size(), System.currentTimeMillis() - start);
+		return ready;
+	}
+
+	/**
+	 * Restores a workflow read from the data store and collects its ready tasks.
+	 */
+	private void resume(Workflow workflow, List<Task> ready) {
+		List<Task> tasks = workflow.getTasks();
+		if (tasks.isEmpty()) {
+			finishWorkflow(workflow, WorkflowStatus.COMPLETED);
+			return;
+		}
+		if (tasks.stream().anyMatch(t -> TaskStatus.FAILED.name().equals(t.getStatus()))) {
+			finishWorkflow(workflow, WorkflowStatus.FAILED);
+			return;
+		}
+
+		WorkflowGraph graph;
 		try {
-			logger.info("Starting task {} of workflow {}", task.getId(), task.getWorkflowId());
-			messagingService.sendTask(task);
+			graph = WorkflowGraph.of(workflow);
+		}
+		catch (IllegalArgumentException e) {
+			logger.error("Invalid workflow {} in store: {}", workflow.getId(), e.getMessage());
+			finishWorkflow(workflow, WorkflowStatus.FAILED);
+			return;
+		}
+
+		List<Task> candidates = new ArrayList<>(index.add(workflow, graph));
+		for (Task task : tasks) {
+			if (TaskStatus.COMPLETED.name().equals(task.getStatus())) {
+				candidates.addAll(index.complete(task.getId()));
+			}
 		}
-		catch (Exception e) {
-			e.printStackTrace();
+		if (index.remaining(workflow.getId()) == 0) {
+			finishWorkflow(workflow, WorkflowStatus.COMPLETED);
+			return;
+		}
+
+		// tasks with all dependencies completed, that were never started
+		candidates.stream().filter(t -> TaskStatus.PENDING.name().equals(t.getStatus())).forEach(ready::add);
+	}
+
+	/**
+	 * Dispatches a task recorded in the outbox, if still waiting for it.
+	 * @param taskId The ID of the task.
+	 * @return a future completed when the task has been dispatched or does
+	 *         not need to be anymore.
+	 */
+	public CompletableFuture<Void> dispatchTask(String taskId) {
+		WorkflowIndex.TaskRef found = index.get(taskId);
+		if (found == null) {
+			// completed, or its workflow finished
+			return CompletableFuture.completedFuture(null);
 		}
+		Task ready = locks.call(found.workflow().getId(), () -> {
+			WorkflowIndex.TaskRef ref = index.get(taskId);
+			if (ref == null || !TaskStatus.PENDING.name().equals(ref.task().getStatus())) {
+				return null;
+			}
+			return ref.task();
+		});
+		return ready != null ? submit(ready, 0) : CompletableFuture.completedFuture(null);
 	}
 
+	/**
+	 * Dispatches the tasks collected under a workflow stripe, after it was
+	 * unlocked.
+	 */
+	private void dispatch(List<Ready> ready) {
+		for (Ready r : ready) {
+			doTask(r.task(), r.completedAt());
+		}
+	}
+
+	private void doTask(Task task) {
+		doTask(task, 0);
+	}
+
+	/**
+	 * Hands a ready task over to the dispatch scheduler, recording it in the
+	 * outbox should the dispatch fail.
+	 * @param completedAt When the completion releasing the task was applied,
+	 *            in nanos, or 0.
+	 */
+	private void doTask(Task task, long completedAt) {
+		submit(task, completedAt).whenCompleteAsync((r, e) -> {
+			if (e == null) {
+				return;
+			}
+			try {
+				taskOutbox.addAll(List.of(task), System.currentTimeMillis() + retryDelay);
+			}
+			catch (Exception ex) {
+				// dispatched again on recovery
+				logger.error("Error recording task {} of workflow {} for retry", task.getId(),
+						task.getWorkflowId(), ex);
+			}
+		});
+	}
+
+	private CompletableFuture<Void> submit(Task task, long completedAt) {
+		logger.info("Starting task {} of workflow {}", task.getId(), task.getWorkflowId());
+		Workflow workflow = workflows.get(task.getWorkflowId());
+		int priority = workflow != null && workflow.getPriority() != null ? workflow.getPriority() : 0;
+		// from now on the worker changes the task in the store only
+		taskCache.invalidate(task.getId());
+		// called out of the stripe, the workflow may have finished meanwhile
+		return dispatchScheduler.submit(task, priority, completedAt, () -> index.get(task.getId()) != null);
+	}
+
+	/**
+	 * Reads a workflow with all its tasks, using a single task query.
+	 * @param id The ID of the workflow.
+	 * @return A detached view of the workflow, or null if unknown.
+	 */
 	public Workflow getWorkflow(String id) {
+		Workflow view;
 		Workflow workflow = workflows.get(id);
-		if (workflow == null) {
-			return null;
+		if (workflow != null) {
+			// the live workflow is owned by the engine
+			view = new Workflow();
+			view.setId(workflow.getId());
+			view.setName(workflow.getName());
+			view.setParallel(workflow.isParallel());
+			view.setPriority(workflow.getPriority());
+			view.setStatus(workflow.getStatus());
+			view.setCreatedAt(workflow.getCreatedAt());
+			view.setUpdatedAt(workflow.getUpdatedAt());
+			view.setTaskCount(workflow.getTaskCount());
 		}
-		List<Task> tasks = new LinkedList<>();
-		for (Task task : workflow.getTasks()) {
-			if (task.getId() != null) {
-				tasks.add(taskStoreService.getTaskById(task.getId()));
-			}
-			else {
-				tasks.add(task);
+		else {
+			// finished or unknown, read it from the store
+			view = workflowStoreService.getWorkflowById(id);
+			if (view == null) {
+				return null;
 			}
 		}
-		workflow.setTasks(tasks);
-		return workflow;
 
+		List<Task> tasks = taskStoreService.getTasksByWorkflowId(id);
+		Map<String, Long> summary = TaskStatus.emptySummary();
+		tasks.forEach(t -> summary.merge(t.getStatus(), 1L, Long::sum));
+		view.setTasks(tasks);
+		view.setSummary(summary);
+		return view;
+	}
+
+	/**
+	 * Opens a stream of the task state changes of a workflow, ending with its
+	 * final status.
+	 * @param id The ID of the workflow.
+	 * @return The event stream, or null if the workflow is unknown.
+	 */
+	public SseEmitter streamWorkflow(String id) {
+		// under the stripe, so that the workflow can not finish unnoticed
+		SseEmitter emitter = locks.call(id, () -> workflows.containsKey(id) ? workflowEvents.subscribe(id) : null);
+		if (emitter != null) {
+			return emitter;
+		}
+		Workflow stored = workflowStoreService.getWorkflowById(id);
+		return stored != null ? workflowEvents.finished(stored) : null;
+	}
+
+	/**
+	 * Counts the tasks of a workflow per status.
+	 * @param id The ID of the workflow.
+	 * @return The number of tasks per status, or null if the workflow is unknown.
+	 */
+	public Map<String, Long> getWorkflowSummary(String id) {
+		if (!workflows.containsKey(id) && workflowStoreService.getWorkflowById(id) == null) {
+			return null;
+		}
+		return taskStoreService.getStatusSummary(id);
+	}
+
+	/**
+	 * Lists workflows matching a filter, one offset page at a time.
+	 */
+	public Page<Workflow> listWorkflows(Specification<Workflow> filter, Pageable pageable) {
+		return workflowStoreService.findWorkflows(filter, pageable);
+	}
+
+	/**
+	 * Lists workflows matching a filter after a keyset position, newest first.
+	 */
+	public Window<Workflow> scrollWorkflows(Specification<Workflow> filter, ScrollPosition position, int size) {
+		return workflowStoreService.scrollWorkflows(filter, position, size);
 	}
 
-	public List<Workflow> listWorkflows() {
-		return new LinkedList<>(workflows.values());
+	private record Ready(Task task, long completedAt) {
 	}
 
 }
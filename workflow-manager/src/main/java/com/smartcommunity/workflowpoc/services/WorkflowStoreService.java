@@ -0,0 +1,229 @@
+package com.smartcommunity.workflowpoc.services;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+import com.smartcommunity.workflowpoc.domain.Workflow;
+import com.smartcommunity.workflowpoc.domain.WorkflowStatus;
+import com.smartcommunity.workflowpoc.repository.TaskRepository;
+import com.smartcommunity.workflowpoc.repository.WorkflowRepository;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.Transactional;
+
+/**
+ * Service for persisting workflows in the data store.
+ *
+ * Workflows are inserted synchronously when started, and so is their final
+ * state, so that a workflow reported finished is finished in the store too.
+ * Other state changes are written behind: updates are coalesced per workflow
+ * and flushed periodically as JDBC batches. A lost update is recomputed from
+ * the task states on recovery.
+ */
+@Service
+public class WorkflowStoreService {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkflowStoreService.class);
+
+    private static final String INSERT_SQL = "INSERT INTO workflow "
+            + "(id, name, parallel, priority, status, created_at, updated_at, task_count) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Sort for keyset scrolling, matching the created/id index.
+     */
+    public static final Sort KEYSET_SORT = Sort.by(Sort.Order.desc("createdAt"), Sort.Order.desc("id"));
+
+    private static final String UPDATE_SQL = "UPDATE workflow SET status = ?, updated_at = ? WHERE id = ?";
+
+    @Autowired
+    private WorkflowRepository workflowRepository;
+
+    @Autowired
+    private TaskRepository taskRepository;
+
+    @Autowired
+    private TaskStoreService taskStoreService;
+
+    @Autowired
+    private TaskOutbox taskOutbox;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${persistence.write-behind.batch-size:500}")
+    private int batchSize;
+
+    @Value("${persistence.insert-batch-size:1000}")
+    private int insertBatchSize;
+
+    private final Map<String, WorkflowUpdate> dirty = new ConcurrentHashMap<>();
+
+    /**
+     * Inserts new workflows together with all their tasks and the outbox
+     * entries of their ready tasks in one transaction, using JDBC batches.
+     *
+     * @param workflows
+     * @param ready
+     * @return
+     */
+    @Transactional
+    public List<Workflow> createAll(List<Workflow> workflows, Collection<Task> ready) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, workflows, insertBatchSize, (ps, wf) -> {
+            ps.setString(1, wf.getId());
+            ps.setString(2, wf.getName());
+            ps.setBoolean(3, wf.isParallel());
+            ps.setObject(4, wf.getPriority(), Types.INTEGER);
+            ps.setString(5, wf.getStatus());
+            ps.setLong(6, wf.getCreatedAt());
+            ps.setLong(7, wf.getUpdatedAt());
+            ps.setInt(8, wf.getTaskCount());
+        });
+
+        List<Task> tasks = new ArrayList<>();
+        workflows.forEach(wf -> tasks.addAll(wf.getTasks()));
+        if (!tasks.isEmpty()) {
+            taskStoreService.storeAll(tasks);
+        }
+        if (!ready.isEmpty()) {
+            taskOutbox.addAll(ready, System.currentTimeMillis());
+        }
+        return workflows;
+    }
+
+    /**
+     * Writes the final state of a workflow at once, superseding any update
+     * still queued. Should the write fail, it is left to the write behind.
+     *
+     * @param workflow
+     */
+    public void finish(Workflow workflow) {
+        dirty.remove(workflow.getId());
+        try {
+            jdbcTemplate.update(UPDATE_SQL, workflow.getStatus(), workflow.getUpdatedAt(), workflow.getId());
+        } catch (Exception e) {
+            logger.error("Error writing final state of workflow {}, retrying in background", workflow.getId(), e);
+            update(workflow);
+        }
+    }
+
+    /**
+     * Schedules the current state of a workflow to be written.
+     *
+     * @param workflow
+     */
+    public void update(Workflow workflow) {
+        dirty.put(workflow.getId(), new WorkflowUpdate(workflow.getStatus(), workflow.getUpdatedAt()));
+    }
+
+    /**
+     * Writes pending workflow updates in batches.
+     */
+    @Scheduled(fixedDelayString = "${persistence.write-behind.interval:200}")
+    public void flush() {
+        while (!dirty.isEmpty()) {
+            List<Map.Entry<String, WorkflowUpdate>> batch = new ArrayList<>(batchSize);
+            Iterator<Map.Entry<String, WorkflowUpdate>> it = dirty.entrySet().iterator();
+            while (it.hasNext() && batch.size() < batchSize) {
+                Map.Entry<String, WorkflowUpdate> next = it.next();
+                Map.Entry<String, WorkflowUpdate> e = Map.entry(next.getKey(), next.getValue());
+                // remove only the value we write, a newer one stays queued
+                if (dirty.remove(e.getKey(), e.getValue())) {
+                    batch.add(e);
+                }
+            }
+
+            try {
+                jdbcTemplate.batchUpdate(UPDATE_SQL, batch.stream()
+                    .map(e -> new Object[] { e.getValue().status(), e.getValue().updatedAt(), e.getKey() })
+                    .toList());
+            } catch (Exception e) {
+                logger.error("Error writing {} workflow updates", batch.size(), e);
+                // keep them for the next round, unless superseded
+                batch.forEach(u -> dirty.putIfAbsent(u.getKey(), u.getValue()));
+                return;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    /**
+     * Streams all running workflows and then all their tasks, ordered by
+     * workflow and position. Entities are detached as they are read, so the
+     * persistence context does not grow with the number of rows.
+     *
+     * @param workflowConsumer
+     * @param taskConsumer
+     */
+    @Transactional
+    public void streamRunning(Consumer<Workflow> workflowConsumer, Consumer<Task> taskConsumer) {
+        try (Stream<Workflow> stream = workflowRepository.streamByStatus(WorkflowStatus.RUNNING.name())) {
+            stream.forEach(wf -> {
+                entityManager.detach(wf);
+                workflowConsumer.accept(wf);
+            });
+        }
+        try (Stream<Task> stream = taskRepository.streamByWorkflowStatus(WorkflowStatus.RUNNING.name())) {
+            stream.forEach(t -> {
+                entityManager.detach(t);
+                taskConsumer.accept(t);
+            });
+        }
+    }
+
+    public Workflow getWorkflowById(String id) {
+        return workflowRepository.findById(id).orElse(null);
+    }
+
+    public Page<Workflow> findWorkflows(Specification<Workflow> filter, Pageable pageable) {
+        return workflowRepository.findAll(filter, pageable);
+    }
+
+    /**
+     * Reads a window of workflows after the given keyset position, newest
+     * first. Unlike offset pages, the cost does not grow with the depth.
+     *
+     * @param filter
+     * @param position
+     * @param size
+     * @return
+     */
+    public Window<Workflow> scrollWorkflows(Specification<Workflow> filter, ScrollPosition position, int size) {
+        return workflowRepository.findBy(filter, q -> q.sortBy(KEYSET_SORT).limit(size).scroll(position));
+    }
+
+    private record WorkflowUpdate(String status, long updatedAt) {
+    }
+
+}
@@ -0,0 +1,203 @@
+package com.smartcommunity.workflowpoc.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class DispatchSchedulerTest {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	private final RecordingTransport transport = new RecordingTransport();
+
+	private DispatchScheduler scheduler;
+
+	@AfterEach
+	void close() {
+		if (scheduler != null) {
+			scheduler.close();
+		}
+	}
+
+	@Test
+	void holdsTasksBeyondTheWindow() throws Exception {
+		scheduler = scheduler(2);
+		submit("a1", "A", 0);
+		submit("a2", "A", 0);
+		CompletableFuture<Void> third = submit("a3", "A", 0);
+
+		assertThat(transport.next()).isEqualTo("a1");
+		assertThat(transport.next()).isEqualTo("a2");
+		assertThat(transport.none()).isTrue();
+		assertThat(scheduler.getInFlight()).isEqualTo(2);
+		assertThat(scheduler.getQueued()).isEqualTo(1);
+		assertThat(third).isNotDone();
+
+		scheduler.release("a1");
+
+		assertThat(transport.next()).isEqualTo("a3");
+		third.get(5, TimeUnit.SECONDS);
+		assertThat(scheduler.getInFlight()).isEqualTo(2);
+		assertThat(scheduler.getQueued()).isZero();
+	}
+
+	@Test
+	void takesTurnsWeightedByPriority() throws Exception {
+		scheduler = scheduler(1);
+		submit("x1", "X", 0);
+		assertThat(transport.next()).isEqualTo("x1");
+		for (int i = 1; i <= 4; i++) {
+			submit("a" + i, "A", 1);
+		}
+		for (int i = 1; i <= 3; i++) {
+			submit("b" + i, "B", 0);
+		}
+
+		List<String> order = new ArrayList<>();
+		String last = "x1";
+		for (int i = 0; i < 7; i++) {
+			scheduler.release(last);
+			last = transport.next();
+			order.add(last);
+		}
+
+		// two tasks per turn for priority 1, one for priority 0
+		assertThat(order).containsExactly("a1", "a2", "b1", "a3", "a4", "b2", "b3");
+	}
+
+	@Test
+	void ignoresTasksQueuedOrInFlightAlready() throws Exception {
+		scheduler = scheduler(1);
+		submit("a1", "A", 0);
+		submit("a2", "A", 0);
+		submit("a1", "A", 0);
+		submit("a2", "A", 0);
+
+		assertThat(transport.next()).isEqualTo("a1");
+		assertThat(scheduler.getQueued()).isEqualTo(1);
+		assertThat(scheduler.getInFlight()).isEqualTo(1);
+	}
+
+	@Test
+	void cancelDropsQueuedTasksAndFreesSlots() throws Exception {
+		scheduler = scheduler(1);
+		submit("a1", "A", 0);
+		CompletableFuture<Void> queued = submit("a2", "A", 0);
+		submit("b1", "B", 0);
+		assertThat(transport.next()).isEqualTo("a1");
+
+		scheduler.cancel("A");
+
+		queued.get(5, TimeUnit.SECONDS);
+		assertThat(transport.next()).isEqualTo("b1");
+		assertThat(transport.none()).isTrue();
+		assertThat(scheduler.getQueued()).isZero();
+		assertThat(scheduler.getInFlight()).isEqualTo(1);
+	}
+
+	@Test
+	void skipsTasksNoLongerLive() throws Exception {
+		scheduler = scheduler(1);
+		CompletableFuture<Void> dispatched = scheduler.submit(task("a1", "A"), 0, 0, () -> false);
+
+		assertThat(dispatched).isDone();
+		assertThat(scheduler.getQueued()).isZero();
+		assertThat(scheduler.getInFlight()).isZero();
+		assertThat(transport.none()).isTrue();
+	}
+
+	@Test
+	void failedDispatchFreesItsSlot() throws Exception {
+		scheduler = scheduler(1);
+		transport.fail = true;
+		CompletableFuture<Void> dispatched = submit("a1", "A", 0);
+
+		assertThat(transport.next()).isEqualTo("a1");
+		assertThat(dispatched).failsWithin(5, TimeUnit.SECONDS);
+		assertThat(scheduler.getInFlight()).isZero();
+	}
+
+	@Test
+	void capsPriorities() throws Exception {
+		scheduler = scheduler(10);
+		submit("a1", "A", 100);
+		submit("b1", "B", -5);
+
+		transport.next();
+		transport.next();
+		assertThat(transport.priorities).containsExactlyInAnyOrder(9, 0);
+	}
+
+	private DispatchScheduler scheduler(int maxInFlight) {
+		WorkflowMetrics metrics = new WorkflowMetrics();
+		ReflectionTestUtils.setField(metrics, "registry", registry);
+		DispatchScheduler scheduler = new DispatchScheduler();
+		ReflectionTestUtils.setField(scheduler, "taskTransport", transport);
+		ReflectionTestUtils.setField(scheduler, "meterRegistry", registry);
+		ReflectionTestUtils.setField(scheduler, "metrics", metrics);
+		ReflectionTestUtils.setField(scheduler, "maxInFlight", maxInFlight);
+		ReflectionTestUtils.setField(scheduler, "maxPriority", 9);
+		scheduler.init();
+		return scheduler;
+	}
+
+	private CompletableFuture<Void> submit(String id, String workflowId, int priority) {
+		return scheduler.submit(task(id, workflowId), priority, 0, () -> true);
+	}
+
+	private static Task task(String id, String workflowId) {
+		Task task = new Task();
+		task.setId(id);
+		task.setWorkflowId(workflowId);
+		task.setType("t1");
+		return task;
+	}
+
+	/**
+	 * Records the tasks sent, in order, and confirms them at once.
+	 */
+	private static class RecordingTransport implements TaskTransport {
+
+		private final BlockingQueue<String> sent = new LinkedBlockingQueue<>();
+
+		private final List<Integer> priorities = new ArrayList<>();
+
+		private volatile boolean fail;
+
+		@Override
+		public void init(TaskCompleteProcessor taskCompleteProcessor) {
+		}
+
+		@Override
+		public synchronized CompletableFuture<Void> sendTask(Task task, int priority) {
+			priorities.add(priority);
+			sent.add(task.getId());
+			return fail ? CompletableFuture.failedFuture(new IllegalStateException("Dispatch failed"))
+					: CompletableFuture.completedFuture(null);
+		}
+
+		String next() throws InterruptedException {
+			String id = sent.poll(5, TimeUnit.SECONDS);
+			assertThat(id).as("task sent").isNotNull();
+			return id;
+		}
+
+		boolean none() throws InterruptedException {
+			return sent.poll(100, TimeUnit.MILLISECONDS) == null;
+		}
+	}
+
+}
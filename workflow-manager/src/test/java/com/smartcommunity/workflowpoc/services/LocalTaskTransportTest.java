@@ -0,0 +1,95 @@
+package com.smartcommunity.workflowpoc.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+import com.smartcommunity.workflowpoc.domain.Workflow;
+
+/**
+ * Runs workflows end to end in single node mode, on an in-memory database and
+ * without a broker.
+ */
+@SpringBootTest(properties = {
+		"messaging.transport=local",
+		"messaging.local.handler=test",
+		"spring.datasource.url=jdbc:h2:mem:local-transport;DB_CLOSE_DELAY=-1",
+		"spring.datasource.driver-class-name=org.h2.Driver",
+		"spring.datasource.username=sa",
+		"spring.datasource.password=",
+		"payload.store.path=target/test-payloads",
+		"outbox.interval=50",
+		"management.health.rabbit.enabled=false" })
+class LocalTaskTransportTest {
+
+	@TestConfiguration
+	static class Handler {
+
+		@Bean
+		LocalTaskHandler testTaskHandler() {
+			return task -> {
+				if ("fail".equals(task.getType())) {
+					throw new IllegalStateException("Task failed on purpose");
+				}
+				task.setOutput(task.getInput().toUpperCase());
+			};
+		}
+	}
+
+	@Autowired
+	private WorkflowService workflowService;
+
+	@Test
+	void completesWorkflowAndStoresOutputs() throws Exception {
+		Workflow workflow = workflowService.startWorkflow(workflow("ok", "ok", "ok"));
+
+		Workflow done = awaitFinished(workflow.getId());
+		assertThat(done.getStatus()).isEqualTo("COMPLETED");
+		assertThat(done.getTasks()).extracting(Task::getStatus).containsOnly("COMPLETED");
+		assertThat(done.getTasks()).extracting(Task::getOutput).containsExactlyInAnyOrder("IN-0", "IN-1", "IN-2");
+	}
+
+	@Test
+	void failsWorkflowOnFailedTask() throws Exception {
+		Workflow workflow = workflowService.startWorkflow(workflow("ok", "fail", "ok"));
+
+		Workflow done = awaitFinished(workflow.getId());
+		assertThat(done.getStatus()).isEqualTo("FAILED");
+		assertThat(done.getTasks()).extracting(Task::getStatus)
+			.containsExactlyInAnyOrder("COMPLETED", "FAILED", "PENDING");
+	}
+
+	private static Workflow workflow(String... types) {
+		Workflow workflow = new Workflow();
+		workflow.setName("local");
+		List<Task> tasks = new ArrayList<>();
+		for (int i = 0; i < types.length; i++) {
+			Task task = new Task();
+			task.setType(types[i]);
+			task.setInput("in-" + i);
+			tasks.add(task);
+		}
+		workflow.setTasks(tasks);
+		return workflow;
+	}
+
+	private Workflow awaitFinished(String id) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		Workflow workflow = workflowService.getWorkflow(id);
+		while (!"COMPLETED".equals(workflow.getStatus()) && !"FAILED".equals(workflow.getStatus())
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+			workflow = workflowService.getWorkflow(id);
+		}
+		return workflow;
+	}
+
+}
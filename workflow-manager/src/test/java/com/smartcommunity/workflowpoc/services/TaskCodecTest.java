@@ -0,0 +1,136 @@
+package com.smartcommunity.workflowpoc.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+import com.smartcommunity.workflowpoc.domain.TaskStatus;
+
+import tools.jackson.databind.ObjectMapper;
+
+class TaskCodecTest {
+
+	private final TaskCodec binary = new TaskCodec(new ObjectMapper(), true);
+
+	private final TaskCodec json = new TaskCodec(new ObjectMapper(), false);
+
+	@Test
+	void binaryRoundTripWithPayloads() {
+		Task task = task(UUID.randomUUID().toString(), UUID.randomUUID().toString());
+		task.setInput("input è");
+		task.setOutputRef("blob-1");
+
+		Task decoded = binary.decode(TaskCodec.BINARY_CONTENT_TYPE, binary.encode(task));
+
+		assertSameTask(decoded, task);
+		assertThat(decoded.getInput()).isEqualTo("input è");
+		assertThat(decoded.getInputRef()).isNull();
+		assertThat(decoded.getOutput()).isNull();
+		assertThat(decoded.getOutputRef()).isEqualTo("blob-1");
+	}
+
+	@Test
+	void binaryRoundTripWithPlainIdsAndNulls() {
+		Task task = task("task-1", "workflow-1");
+		task.setStatus(null);
+		task.setVersion(null);
+
+		Task decoded = binary.decode(TaskCodec.BINARY_CONTENT_TYPE, binary.encode(task));
+
+		assertThat(decoded.getId()).isEqualTo("task-1");
+		assertThat(decoded.getWorkflowId()).isEqualTo("workflow-1");
+		assertThat(decoded.getStatus()).isNull();
+		assertThat(decoded.getVersion()).isNull();
+	}
+
+	@Test
+	void jsonRoundTrip() {
+		Task task = task(UUID.randomUUID().toString(), "workflow-1");
+		task.setInput("{\"a\": 1}");
+
+		assertThat(json.contentType()).isEqualTo(TaskCodec.JSON_CONTENT_TYPE);
+		Task decoded = binary.decode(json.contentType(), json.encode(task));
+
+		assertSameTask(decoded, task);
+		assertThat(decoded.getInput()).isEqualTo("{\"a\": 1}");
+	}
+
+	@Test
+	void decodesVersionOneMessages() {
+		UUID id = UUID.randomUUID();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(1);
+		// id as raw UUID
+		out.write(1);
+		out.writeBytes(ByteBuffer.allocate(16)
+			.putLong(id.getMostSignificantBits())
+			.putLong(id.getLeastSignificantBits())
+			.array());
+		// workflow id as string
+		out.write(2);
+		out.write(4);
+		out.writeBytes("wf-1".getBytes(StandardCharsets.UTF_8));
+		// type, length plus one
+		out.write(3);
+		out.writeBytes("t1".getBytes(StandardCharsets.UTF_8));
+		out.write(TaskStatus.IN_PROGRESS.code());
+		// version plus one, created and updated as varints
+		out.write(4);
+		out.writeBytes(new byte[] { (byte) 0xAC, 0x02 });
+		out.write(1);
+
+		Task decoded = binary.decode(TaskCodec.BINARY_CONTENT_TYPE, out.toByteArray());
+
+		assertThat(decoded.getId()).isEqualTo(id.toString());
+		assertThat(decoded.getWorkflowId()).isEqualTo("wf-1");
+		assertThat(decoded.getType()).isEqualTo("t1");
+		assertThat(decoded.getStatus()).isEqualTo(TaskStatus.IN_PROGRESS.name());
+		assertThat(decoded.getVersion()).isEqualTo(3);
+		assertThat(decoded.getCreatedAt()).isEqualTo(300);
+		assertThat(decoded.getUpdatedAt()).isEqualTo(1);
+		assertThat(decoded.getInput()).isNull();
+		assertThat(decoded.getOutputRef()).isNull();
+	}
+
+	@Test
+	void rejectsUnknownAndTruncatedMessages() {
+		byte[] encoded = binary.encode(task(UUID.randomUUID().toString(), "wf"));
+		byte[] truncated = Arrays.copyOf(encoded, encoded.length - 3);
+
+		assertThatThrownBy(() -> binary.decode(TaskCodec.BINARY_CONTENT_TYPE, new byte[] { 9 }))
+			.isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> binary.decode(TaskCodec.BINARY_CONTENT_TYPE, truncated))
+			.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	private static Task task(String id, String workflowId) {
+		Task task = new Task();
+		task.setId(id);
+		task.setWorkflowId(workflowId);
+		task.setType("t1");
+		task.setStatus(TaskStatus.COMPLETED.name());
+		task.setVersion(2);
+		task.setCreatedAt(1_700_000_000_000L);
+		task.setUpdatedAt(1_700_000_001_000L);
+		return task;
+	}
+
+	private static void assertSameTask(Task decoded, Task task) {
+		assertThat(decoded.getId()).isEqualTo(task.getId());
+		assertThat(decoded.getWorkflowId()).isEqualTo(task.getWorkflowId());
+		assertThat(decoded.getType()).isEqualTo(task.getType());
+		assertThat(decoded.getStatus()).isEqualTo(task.getStatus());
+		assertThat(decoded.getVersion()).isEqualTo(task.getVersion());
+		assertThat(decoded.getCreatedAt()).isEqualTo(task.getCreatedAt());
+		assertThat(decoded.getUpdatedAt()).isEqualTo(task.getUpdatedAt());
+	}
+
+}
@@ -0,0 +1,104 @@
+package com.smartcommunity.workflowpoc.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+import com.smartcommunity.workflowpoc.domain.Workflow;
+
+class WorkflowGraphTest {
+
+	@Test
+	void sequentialWorkflowIsAChain() {
+		WorkflowGraph graph = WorkflowGraph.of(workflow(false, task(null), task(null), task(null)));
+
+		assertThat(graph.size()).isEqualTo(3);
+		assertThat(graph.indegree(0)).isZero();
+		assertThat(graph.successors(0)).containsExactly(1);
+		assertThat(graph.successors(1)).containsExactly(2);
+		assertThat(graph.successors(2)).isEmpty();
+		assertThat(graph.indegree(2)).isEqualTo(1);
+	}
+
+	@Test
+	void parallelWorkflowHasNoEdges() {
+		WorkflowGraph graph = WorkflowGraph.of(workflow(true, task(null), task(null)));
+
+		assertThat(graph.indegree(0)).isZero();
+		assertThat(graph.indegree(1)).isZero();
+		assertThat(graph.successors(0)).isEmpty();
+	}
+
+	@Test
+	void declaredDependenciesFormADag() {
+		WorkflowGraph graph = WorkflowGraph.of(workflow(false, task("a"), task("b", "a"), task("c", "a"),
+				task("d", "b", "c")));
+
+		assertThat(graph.successors(0)).containsExactlyInAnyOrder(1, 2);
+		assertThat(graph.successors(1)).containsExactly(3);
+		assertThat(graph.indegree(0)).isZero();
+		assertThat(graph.indegree(3)).isEqualTo(2);
+	}
+
+	@Test
+	void positionsReferenceTasksWithoutRef() {
+		WorkflowGraph graph = WorkflowGraph.of(workflow(false, task(null), task(null, "0")));
+
+		assertThat(graph.successors(0)).containsExactly(1);
+	}
+
+	@Test
+	void rejectsCycles() {
+		Workflow workflow = workflow(false, task("a", "c"), task("b", "a"), task("c", "b"));
+
+		assertThatThrownBy(() -> WorkflowGraph.of(workflow)).isInstanceOf(IllegalArgumentException.class)
+			.hasMessageContaining("cycle");
+	}
+
+	@Test
+	void rejectsSelfDependency() {
+		Workflow workflow = workflow(false, task("a", "a"));
+
+		assertThatThrownBy(() -> WorkflowGraph.of(workflow)).isInstanceOf(IllegalArgumentException.class)
+			.hasMessageContaining("cycle");
+	}
+
+	@Test
+	void rejectsUnknownRefs() {
+		Workflow workflow = workflow(false, task("a"), task("b", "x"));
+
+		assertThatThrownBy(() -> WorkflowGraph.of(workflow)).isInstanceOf(IllegalArgumentException.class)
+			.hasMessageContaining("Unknown dependency x");
+	}
+
+	@Test
+	void rejectsDuplicateRefs() {
+		Workflow workflow = workflow(false, task("a"), task("a"), task("b", "a"));
+
+		assertThatThrownBy(() -> WorkflowGraph.of(workflow)).isInstanceOf(IllegalArgumentException.class)
+			.hasMessageContaining("Duplicate task ref a");
+	}
+
+	static Workflow workflow(boolean parallel, Task... tasks) {
+		Workflow workflow = new Workflow();
+		workflow.setId("wf");
+		workflow.setParallel(parallel);
+		workflow.setTasks(new ArrayList<>(List.of(tasks)));
+		return workflow;
+	}
+
+	static Task task(String ref, String... dependsOn) {
+		Task task = new Task();
+		task.setRef(ref);
+		if (dependsOn.length > 0) {
+			task.setDependsOn(List.of(dependsOn));
+		}
+		return task;
+	}
+
+}
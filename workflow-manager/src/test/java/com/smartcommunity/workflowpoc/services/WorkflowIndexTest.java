@@ -0,0 +1,79 @@
+package com.smartcommunity.workflowpoc.services;
+
+import static com.smartcommunity.workflowpoc.services.WorkflowGraphTest.task;
+import static com.smartcommunity.workflowpoc.services.WorkflowGraphTest.workflow;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+import com.smartcommunity.workflowpoc.domain.Task;
+import com.smartcommunity.workflowpoc.domain.Workflow;
+
+class WorkflowIndexTest {
+
+	private final WorkflowIndex index = new WorkflowIndex();
+
+	@Test
+	void releasesJoinOnlyOnceAllPredecessorsComplete() {
+		Workflow workflow = indexed(task("a"), task("b", "a"), task("c", "a"), task("d", "b", "c"));
+		Task a = workflow.getTasks().get(0);
+		Task b = workflow.getTasks().get(1);
+		Task c = workflow.getTasks().get(2);
+		Task d = workflow.getTasks().get(3);
+
+		assertThat(index.complete(a.getId())).containsExactlyInAnyOrder(b, c);
+		assertThat(index.complete(b.getId())).isEmpty();
+		assertThat(index.complete(c.getId())).containsExactly(d);
+		assertThat(index.remaining("wf")).isEqualTo(1);
+		assertThat(index.complete(d.getId())).isEmpty();
+		assertThat(index.remaining("wf")).isZero();
+		assertThat(index.size()).isZero();
+	}
+
+	@Test
+	void addReturnsTasksWithoutPredecessors() {
+		Workflow workflow = workflow(false, task("a"), task("b"), task("c", "a", "b"));
+		assignIds(workflow);
+
+		assertThat(index.add(workflow, WorkflowGraph.of(workflow)))
+			.containsExactly(workflow.getTasks().get(0), workflow.getTasks().get(1));
+		assertThat(index.remaining("wf")).isEqualTo(3);
+		assertThat(index.get("wf-2").position()).isEqualTo(2);
+	}
+
+	@Test
+	void duplicateCompletionIsIgnored() {
+		Workflow workflow = indexed(task(null), task(null));
+		String first = workflow.getTasks().get(0).getId();
+
+		assertThat(index.complete(first)).containsExactly(workflow.getTasks().get(1));
+		assertThat(index.complete(first)).isNull();
+		assertThat(index.remaining("wf")).isEqualTo(1);
+	}
+
+	@Test
+	void removeWorkflowDropsAllItsTasks() {
+		Workflow workflow = indexed(task(null), task(null), task(null));
+		index.complete(workflow.getTasks().get(0).getId());
+
+		index.removeWorkflow(workflow);
+
+		assertThat(index.size()).isZero();
+		assertThat(index.remaining("wf")).isZero();
+		assertThat(index.get(workflow.getTasks().get(1).getId())).isNull();
+	}
+
+	private Workflow indexed(Task... tasks) {
+		Workflow workflow = workflow(false, tasks);
+		assignIds(workflow);
+		index.add(workflow, WorkflowGraph.of(workflow));
+		return workflow;
+	}
+
+	private static void assignIds(Workflow workflow) {
+		for (int i = 0; i < workflow.getTasks().size(); i++) {
+			workflow.getTasks().get(i).setId("wf-" + i);
+		}
+	}
+
+}